@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+/**
+ * The JMX view of the hashing metrics of one annotated class, registered by
+ * {@link JmxHashingMetrics}.
+ *
+ * The latency histograms have 64 buckets.  Bucket 0 counts calls that took
+ * 0 nanoseconds and bucket N counts calls that took from 2^(N-1) up to, but
+ * not including, 2^N nanoseconds.
+ */
+public interface HashingClassMetricsMXBean {
+    long getHashCodeCalls();
+
+    long getHashCodeNanos();
+
+    long[] getHashCodeLatencyHistogram();
+
+    long getEqualsCalls();
+
+    long getEqualsNanos();
+
+    long[] getEqualsLatencyHistogram();
+
+    int getMaxDepth();
+
+    long getNodesVisited();
+
+    long getCycleHits();
+
+    long getChangeCallbackFirings();
+
+    void reset();
+}
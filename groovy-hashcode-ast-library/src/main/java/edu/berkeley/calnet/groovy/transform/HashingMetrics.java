@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+/**
+ * Receives measurements from the generated hashCode() and equals() methods
+ * of classes compiled with metrics enabled, either with
+ * {@code @LogicalEqualsAndHashCode(metrics = true)} or with the
+ * {@value LogicalEqualsAndHashCodeASTTransformation#METRICS_PROPERTY}
+ * system property set to true at compile time.  Classes compiled without
+ * metrics don't reference this interface at all.
+ *
+ * The implementation in use is returned by
+ * {@link HashingMetricsRegistry#getMetrics()}.  It can be set directly or
+ * registered with the {@link java.util.ServiceLoader} mechanism, and
+ * defaults to {@link JmxHashingMetrics}.  Implementations are called from
+ * every thread that calls hashCode() or equals() and must be thread-safe.
+ */
+public interface HashingMetrics {
+    /**
+     * Called after each hashCode() call.
+     *
+     * @param type         The annotated class that generated the hashCode() method.
+     * @param nanos        The time spent in hashCode(), in nanoseconds.
+     * @param depth        The deepest nesting of annotated property values that was traversed.  This is 0 when a cached hash code was returned.
+     * @param nodesVisited The number of distinct annotated objects that were traversed.
+     * @param cycleHits    The number of property values that were skipped because they were already visited.
+     */
+    void hashCodeCalled(Class<?> type, long nanos, int depth, int nodesVisited, int cycleHits);
+
+    /**
+     * Called after each equals() call.
+     *
+     * @param type  The annotated class that generated the equals() method.
+     * @param nanos The time spent in equals(), in nanoseconds.
+     */
+    void equalsCalled(Class<?> type, long nanos);
+
+    /**
+     * Called before the changeCallbackClass is notified of a hash code
+     * change.
+     *
+     * @param type The annotated class whose hash code changed.
+     */
+    void hashCodeChangeCallbackFired(Class<?> type);
+}
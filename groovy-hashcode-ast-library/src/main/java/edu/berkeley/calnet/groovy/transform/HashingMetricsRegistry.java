@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Holds the {@link HashingMetrics} implementation that generated
+ * hashCode() and equals() methods report to.
+ *
+ * On first use, the first HashingMetrics implementation registered in
+ * <code>META-INF/services/edu.berkeley.calnet.groovy.transform.HashingMetrics</code>
+ * is used.  If there isn't one, a {@link JmxHashingMetrics} is used.
+ */
+public class HashingMetricsRegistry {
+    private static volatile HashingMetrics metrics;
+
+    public static HashingMetrics getMetrics() {
+        HashingMetrics result = metrics;
+        if (result == null) {
+            synchronized (HashingMetricsRegistry.class) {
+                if (metrics == null) {
+                    metrics = loadMetrics();
+                }
+                result = metrics;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the implementation in use.  Passing null reverts to the
+     * default implementation on next use.
+     */
+    public static void setMetrics(HashingMetrics newMetrics) {
+        metrics = newMetrics;
+    }
+
+    private static HashingMetrics loadMetrics() {
+        Iterator<HashingMetrics> providers = ServiceLoader.load(HashingMetrics.class).iterator();
+        return (providers.hasNext() ? providers.next() : new JmxHashingMetrics());
+    }
+}
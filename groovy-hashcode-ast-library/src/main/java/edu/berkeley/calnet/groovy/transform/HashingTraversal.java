@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import java.util.HashMap;
+
+/**
+ * The visitMap passed to __hashCode() by classes compiled with metrics
+ * enabled.  It counts the circular references detected by the visitMap
+ * lookups and tracks the traversal depth.
+ *
+ * Property values that are annotated but compiled without metrics still
+ * add to the cycle hits and visited nodes, but not to the depth.
+ */
+public class HashingTraversal extends HashMap<Integer, Boolean> {
+    private static final long serialVersionUID = 1L;
+
+    private int depth;
+    private int maxDepth;
+    private int cycleHits;
+
+    @Override
+    public boolean containsKey(Object key) {
+        boolean found = super.containsKey(key);
+        if (found) {
+            cycleHits++;
+        }
+        return found;
+    }
+
+    /**
+     * Called when __hashCode() is entered.  Does nothing if the visitMap
+     * isn't a HashingTraversal.
+     */
+    public static void enter(HashMap<Integer, Boolean> visitMap) {
+        if (visitMap instanceof HashingTraversal) {
+            HashingTraversal traversal = (HashingTraversal) visitMap;
+            if (++traversal.depth > traversal.maxDepth) {
+                traversal.maxDepth = traversal.depth;
+            }
+        }
+    }
+
+    /**
+     * Called when __hashCode() returns.  Does nothing if the visitMap isn't
+     * a HashingTraversal.
+     */
+    public static void exit(HashMap<Integer, Boolean> visitMap) {
+        if (visitMap instanceof HashingTraversal) {
+            ((HashingTraversal) visitMap).depth--;
+        }
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getCycleHits() {
+        return cycleHits;
+    }
+}
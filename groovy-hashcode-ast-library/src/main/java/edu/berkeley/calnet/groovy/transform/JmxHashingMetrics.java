@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default {@link HashingMetrics} implementation.  It keeps counters
+ * and latency histograms for each annotated class and registers them as a
+ * {@link HashingClassMetricsMXBean} named
+ * <code>edu.berkeley.calnet.groovy.transform:type=HashingMetrics,name="&lt;class name&gt;"</code>
+ * the first time the class reports.
+ *
+ * Classes are tracked by name, so no Class or class loader is held on to.
+ * A class that is reloaded, or loaded by more than one class loader,
+ * reports to the same MBean.  Call reset() on it to start over after a
+ * reload.
+ */
+public class JmxHashingMetrics implements HashingMetrics {
+    public static final String OBJECT_NAME_PREFIX = "edu.berkeley.calnet.groovy.transform:type=HashingMetrics,name=";
+    private static final int HISTOGRAM_BUCKETS = 64;
+
+    private final ConcurrentMap<String, ClassMetrics> classMetrics = new ConcurrentHashMap<String, ClassMetrics>();
+    private final MBeanServer mBeanServer;
+
+    public JmxHashingMetrics() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * @param mBeanServer The server to register the MBeans with, or null to not register them.
+     */
+    public JmxHashingMetrics(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    @Override
+    public void hashCodeCalled(Class<?> type, long nanos, int depth, int nodesVisited, int cycleHits) {
+        getClassMetrics(type).recordHashCode(nanos, depth, nodesVisited, cycleHits);
+    }
+
+    @Override
+    public void equalsCalled(Class<?> type, long nanos) {
+        getClassMetrics(type).recordEquals(nanos);
+    }
+
+    @Override
+    public void hashCodeChangeCallbackFired(Class<?> type) {
+        getClassMetrics(type).changeCallbackFirings.increment();
+    }
+
+    /**
+     * @return The metrics for a class, which are created if no class with the same name has reported yet.
+     */
+    public ClassMetrics getClassMetrics(Class<?> type) {
+        return getClassMetrics(type.getName());
+    }
+
+    /**
+     * @return The metrics for a class name, which are created if no class with the name has reported yet.
+     */
+    public ClassMetrics getClassMetrics(String className) {
+        ClassMetrics metrics = classMetrics.get(className);
+        if (metrics == null) {
+            metrics = new ClassMetrics();
+            ClassMetrics existing = classMetrics.putIfAbsent(className, metrics);
+            if (existing != null) {
+                return existing;
+            }
+            register(className, metrics);
+        }
+        return metrics;
+    }
+
+    private void register(String className, ClassMetrics metrics) {
+        if (mBeanServer == null) return;
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(className));
+            if (mBeanServer.isRegistered(name)) {
+                // left behind by another instance, so it would never be updated
+                mBeanServer.unregisterMBean(name);
+            }
+            mBeanServer.registerMBean(metrics, name);
+        } catch (JMException e) {
+            // metrics are still collected, they just aren't visible over JMX
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by this instance.
+     */
+    public void unregister() {
+        if (mBeanServer == null) return;
+        for (String className : classMetrics.keySet()) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(className));
+                if (mBeanServer.isRegistered(name)) {
+                    mBeanServer.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                // already unregistered
+            }
+        }
+    }
+
+    private static int bucket(long nanos) {
+        return (nanos <= 0 ? 0 : Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] result = new long[histogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+
+    private static void clear(AtomicLongArray histogram) {
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+    }
+
+    public static class ClassMetrics implements HashingClassMetricsMXBean {
+        private final LongAdder hashCodeCalls = new LongAdder();
+        private final LongAdder hashCodeNanos = new LongAdder();
+        private final AtomicLongArray hashCodeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+        private final LongAdder equalsCalls = new LongAdder();
+        private final LongAdder equalsNanos = new LongAdder();
+        private final AtomicLongArray equalsHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private final LongAdder nodesVisited = new LongAdder();
+        private final LongAdder cycleHits = new LongAdder();
+        private final LongAdder changeCallbackFirings = new LongAdder();
+
+        void recordHashCode(long nanos, int depth, int nodes, int cycles) {
+            hashCodeCalls.increment();
+            hashCodeNanos.add(nanos);
+            hashCodeHistogram.incrementAndGet(bucket(nanos));
+            nodesVisited.add(nodes);
+            cycleHits.add(cycles);
+            int max = maxDepth.get();
+            while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+                max = maxDepth.get();
+            }
+        }
+
+        void recordEquals(long nanos) {
+            equalsCalls.increment();
+            equalsNanos.add(nanos);
+            equalsHistogram.incrementAndGet(bucket(nanos));
+        }
+
+        @Override
+        public long getHashCodeCalls() {
+            return hashCodeCalls.sum();
+        }
+
+        @Override
+        public long getHashCodeNanos() {
+            return hashCodeNanos.sum();
+        }
+
+        @Override
+        public long[] getHashCodeLatencyHistogram() {
+            return toArray(hashCodeHistogram);
+        }
+
+        @Override
+        public long getEqualsCalls() {
+            return equalsCalls.sum();
+        }
+
+        @Override
+        public long getEqualsNanos() {
+            return equalsNanos.sum();
+        }
+
+        @Override
+        public long[] getEqualsLatencyHistogram() {
+            return toArray(equalsHistogram);
+        }
+
+        @Override
+        public int getMaxDepth() {
+            return maxDepth.get();
+        }
+
+        @Override
+        public long getNodesVisited() {
+            return nodesVisited.sum();
+        }
+
+        @Override
+        public long getCycleHits() {
+            return cycleHits.sum();
+        }
+
+        @Override
+        public long getChangeCallbackFirings() {
+            return changeCallbackFirings.sum();
+        }
+
+        @Override
+        public void reset() {
+            hashCodeCalls.reset();
+            hashCodeNanos.reset();
+            clear(hashCodeHistogram);
+            equalsCalls.reset();
+            equalsNanos.reset();
+            clear(equalsHistogram);
+            maxDepth.set(0);
+            nodesVisited.reset();
+            cycleHits.reset();
+            changeCallbackFirings.reset();
+        }
+    }
+}
@@ -57,6 +57,28 @@ import java.lang.annotation.*;
  * HashCodeChangeCallback interface.  When hashCode() is called and a change
  * in hash code is detected, the hashCodeChange() method will be called. 
  * The callback is instantiated as a static field.
+ *
+ * immutable=true - Optionally declare that the values of the included
+ * properties never change after construction.  The hash code is then
+ * calculated on the first call and cached, and later hashCode() and
+ * equals() calls read the cached value.  This mode is also enabled
+ * automatically when the class is annotated with @Immutable, or when
+ * every included property is final and of an immutable type, unless a
+ * changeCallbackClass is given.  It can't be combined with
+ * changeCallbackClass.
+ *
+ * keyGroups=[list of LogicalKeyGroup annotations] - Optionally define
+ * named groups of properties that get their own hashCode&lt;Name&gt;() and
+ * equals&lt;Name&gt;(Object) methods, for use as secondary keys.  See
+ * {@link LogicalKeyGroup}.
+ *
+ * metrics=true - Optionally report call counts, latencies, traversal depth,
+ * visited nodes, circular reference hits and change callback firings from
+ * hashCode() and equals() to {@link HashingMetricsRegistry#getMetrics()}.
+ * Metrics can also be enabled for every annotated class by setting the
+ * {@value LogicalEqualsAndHashCodeASTTransformation#METRICS_PROPERTY}
+ * system property to true at compile time.  Classes compiled without
+ * metrics have no instrumentation code.
  */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
@@ -77,4 +99,19 @@ public @interface LogicalEqualsAndHashCode {
      * class name that implements the HashCodeChangeCallback interface
      */
     public abstract Class changeCallbackClass() default void.class;
+
+    /**
+     * true if the included properties never change after construction
+     */
+    public abstract boolean immutable() default false;
+
+    /**
+     * named groups of properties that get their own equals and hashCode methods
+     */
+    public abstract LogicalKeyGroup[] keyGroups() default {};
+
+    /**
+     * true to report hashCode() and equals() metrics to a HashingMetrics implementation
+     */
+    public abstract boolean metrics() default false;
 }
@@ -50,31 +50,55 @@ import org.codehaus.groovy.ast.AnnotatedNode;
 import org.codehaus.groovy.ast.AnnotationNode;
 import org.codehaus.groovy.ast.ClassHelper;
 import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.CompileUnit;
 import org.codehaus.groovy.ast.FieldNode;
 import org.codehaus.groovy.ast.GenericsType;
 import org.codehaus.groovy.ast.MethodNode;
 import org.codehaus.groovy.ast.Parameter;
 import org.codehaus.groovy.ast.PropertyNode;
+import org.codehaus.groovy.ast.expr.AnnotationConstantExpression;
 import org.codehaus.groovy.ast.expr.ArrayExpression;
 import org.codehaus.groovy.ast.expr.BinaryExpression;
 import org.codehaus.groovy.ast.expr.BooleanExpression;
 import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.ListExpression;
 import org.codehaus.groovy.ast.expr.VariableExpression;
 import org.codehaus.groovy.ast.stmt.BlockStatement;
 import org.codehaus.groovy.ast.stmt.ExpressionStatement;
 import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.ast.stmt.TryCatchStatement;
 import org.codehaus.groovy.ast.tools.GenericsUtils;
 import org.codehaus.groovy.control.CompilePhase;
 import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.messages.WarningMessage;
 import org.codehaus.groovy.syntax.Token;
 import org.codehaus.groovy.syntax.Types;
 import org.codehaus.groovy.transform.AbstractASTTransformation;
 import org.codehaus.groovy.transform.GroovyASTTransformation;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
 
 import static org.codehaus.groovy.ast.tools.GeneralUtils.*;
 
@@ -88,12 +112,25 @@ import static org.codehaus.groovy.ast.tools.GeneralUtils.*;
  */
 @GroovyASTTransformation(phase = CompilePhase.CANONICALIZATION)
 public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransformation {
+    /**
+     * System property that enables metrics for every annotated class when
+     * set to true at compile time.
+     */
+    public static final String METRICS_PROPERTY = "edu.berkeley.calnet.groovy.transform.metrics";
+
+    /**
+     * System property naming a file that the time spent transforming each
+     * annotated class is appended to at compile time.
+     */
+    public static final String REPORT_PROPERTY = "edu.berkeley.calnet.groovy.transform.report";
+
     private static final Class MY_CLASS = LogicalEqualsAndHashCode.class;
     private static final ClassNode MY_TYPE = ClassHelper.make(MY_CLASS);
     private static final String MY_TYPE_NAME = "@" + MY_TYPE.getNameWithoutPackage();
     private static final ClassNode OBJECT_TYPE = GenericsUtils.makeClassSafe(Object.class);
     private static final ClassNode STRING_TYPE = GenericsUtils.makeClassSafe(String.class);
     private static final ClassNode LIST_STRING_TYPE = GenericsUtils.makeClassSafeWithGenerics(List.class, STRING_TYPE);
+    private static final ClassNode MAP_STRING_WILDCARD_TYPE = GenericsUtils.makeClassSafeWithGenerics(GenericsUtils.makeClassSafe(Map.class), new GenericsType(STRING_TYPE), wildcardType());
     private static final ClassNode LOGICALEQUALSHASHCODE_INTERFACE_TYPE = ClassHelper.make(LogicalEqualsAndHashCodeInterface.class);
     private static final ClassNode HASHCODESALTS_TYPE = ClassHelper.make(HashCodeSalts.class);
     private static final ClassNode HASHMAP_TYPE = GenericsUtils.makeClassSafe(HashMap.class);
@@ -101,14 +138,69 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
     private static final ClassNode BOOLEAN_TYPE = GenericsUtils.makeClassSafe(Boolean.class);
     private static final ClassNode VISITMAP_TYPE = GenericsUtils.makeClassSafeWithGenerics(HASHMAP_TYPE, new GenericsType(INT_TYPE), new GenericsType(BOOLEAN_TYPE));
     private static final ClassNode SYSTEM_TYPE = GenericsUtils.makeClassSafe(System.class);
+    private static final ClassNode THREAD_TYPE = ClassHelper.make(Thread.class);
     private static final ClassNode HASHCODECHANGECALLBACK_INTERFACE_TYPE = ClassHelper.make(HashCodeChangeCallback.class);
+    private static final ClassNode OBJECTS_TYPE = ClassHelper.make(Objects.class);
+    private static final ClassNode LOGICALKEYS_TYPE = ClassHelper.make(LogicalKeys.class);
+    private static final ClassNode BYTEBUFFER_TYPE = ClassHelper.make(ByteBuffer.class);
+    private static final ClassNode ENUM_TYPE = ClassHelper.make(Enum.class);
+    private static final ClassNode HASHINGMETRICSREGISTRY_TYPE = ClassHelper.make(HashingMetricsRegistry.class);
+    private static final ClassNode HASHINGTRAVERSAL_TYPE = ClassHelper.make(HashingTraversal.class);
+    private static final ClassNode UNSUPPORTEDOPERATIONEXCEPTION_TYPE = ClassHelper.make(UnsupportedOperationException.class);
+    private static final ClassNode INDEXOUTOFBOUNDSEXCEPTION_TYPE = ClassHelper.make(IndexOutOfBoundsException.class);
+    private static final ClassNode ILLEGALARGUMENTEXCEPTION_TYPE = ClassHelper.make(IllegalArgumentException.class);
+    private static final List<ClassNode> LOGICAL_KEY_TYPES = Arrays.asList(
+            ClassHelper.make(CharSequence.class),
+            ClassHelper.make(Date.class),
+            ClassHelper.make(UUID.class),
+            ClassHelper.make(BigInteger.class),
+            ClassHelper.make(BigDecimal.class),
+            ClassHelper.make(List.class),
+            LOGICALEQUALSHASHCODE_INTERFACE_TYPE
+    );
+    private static final List<ClassNode> UNORDERED_TYPES = Arrays.asList(
+            ClassHelper.make(Map.class),
+            ClassHelper.make(Set.class)
+    );
+    private static final FieldNode SALTS_FIELD = HASHCODESALTS_TYPE.getDeclaredField("salts");
+    private static final Set<String> IMMUTABLE_ANNOTATION_NAMES = new HashSet<String>(Arrays.asList(
+            "groovy.transform.Immutable",
+            "groovy.transform.ImmutableBase"
+    ));
+    private static final Set<String> IMMUTABLE_TYPE_NAMES = new HashSet<String>(Arrays.asList(
+            "java.lang.String",
+            "java.lang.Boolean",
+            "java.lang.Character",
+            "java.lang.Byte",
+            "java.lang.Short",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Float",
+            "java.lang.Double",
+            "java.math.BigInteger",
+            "java.math.BigDecimal"
+    ));
     private static final String EXCLUDES_FIELD = "logicalHashCodeExcludes";
     private static final String INCLUDES_FIELD = "logicalHashCodeIncludes";
     private static final String LOGICAL_HASHCODE_PROPS_FIELD = "logicalHashCodeProperties";
     private static final String LAST_HASH_CODE_FIELD = "lastHashCode";
     private static final String HASH_CODE_CHANGE_CALLBACK_FIELD = "hashCodeChangeCallback";
+    private static final String CACHED_HASH_CODE_FIELD = "cachedHashCode";
+    private static final String HASHING_THREAD_FIELD = "hashingThread";
     private static final Token XOR = Token.newSymbol(Types.BITWISE_XOR, -1, -1);
     private static final Token MULT = Token.newSymbol(Types.MULTIPLY, -1, -1);
+    private static final Token BITWISE_OR = Token.newSymbol(Types.BITWISE_OR, -1, -1);
+    private static final Token PLUS = Token.newSymbol(Types.PLUS, -1, -1);
+    private static final Token MINUS = Token.newSymbol(Types.MINUS, -1, -1);
+    private static final int MAX_DIFF_PROPERTIES = 64;
+    private static final String RESOLVED_PROPERTIES_KEY = LogicalEqualsAndHashCodeASTTransformation.class.getName() + ".resolvedProperties";
+
+    /**
+     * Report totals of nanoseconds and classes for each compilation.  A new
+     * instance of this class is created for every annotated class, so the
+     * totals can't be instance fields.
+     */
+    private static final Map<CompileUnit, long[]> REPORT_TOTALS = Collections.synchronizedMap(new WeakHashMap<CompileUnit, long[]>());
 
     /**
      * Main method called by the compiler to perform the AST transformation
@@ -116,6 +208,19 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
      */
     @Override
     public void visit(ASTNode[] nodes, SourceUnit source) {
+        String reportFile = System.getProperty(REPORT_PROPERTY);
+        if (reportFile == null || reportFile.isEmpty()) {
+            transform(nodes, source);
+            return;
+        }
+        long startTime = System.nanoTime();
+        transform(nodes, source);
+        if (nodes[1] instanceof ClassNode) {
+            report((ClassNode) nodes[1], source, System.nanoTime() - startTime, new File(reportFile));
+        }
+    }
+
+    private void transform(ASTNode[] nodes, SourceUnit source) {
         init(nodes, source);
         AnnotatedNode parent = (AnnotatedNode) nodes[1];
         AnnotationNode anno = (AnnotationNode) nodes[0];
@@ -128,6 +233,8 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
             List<String> excludes = getMemberList(anno, "excludes");
             List<String> includes = getMemberList(anno, "includes");
             ClassNode changeCallbackClassNode = getMemberClassValue(anno, "changeCallbackClass");
+            boolean immutable = memberHasValue(anno, "immutable", true);
+            boolean metrics = memberHasValue(anno, "metrics", true) || Boolean.getBoolean(METRICS_PROPERTY);
             if (hasAnnotation(cNode, MY_TYPE)) {
                 AnnotationNode canonical = cNode.getAnnotations(MY_TYPE).get(0);
                 if (excludes == null || excludes.isEmpty())
@@ -141,6 +248,11 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
             if (!checkIncludeExclude(anno, excludes, includes, MY_TYPE_NAME))
                 return;
 
+            if (immutable && changeCallbackClassNode != null) {
+                addError("Error during " + MY_TYPE_NAME + " processing: 'immutable' and 'changeCallbackClass' can't be used together.", anno);
+                return;
+            }
+
             // Need to build a list of properties in this class to include
             // in the hash.
             List<PropertyNode> propertyNodesToUse = getLogicalHashCodeProperties(cNode, excludes, includes);
@@ -148,11 +260,19 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
                 HashCodeSalts.ensureMaxSalts(HashCodeSalts.salts.length);
             }
 
+            // property lists for each named key group
+            Map<String, List<PropertyNode>> keyGroups = getKeyGroups(cNode, anno);
+            if (keyGroups == null) return;
+
+            if (!immutable && changeCallbackClassNode == null) {
+                immutable = isImmutable(cNode, propertyNodesToUse);
+            }
+
             // logicalHashCodeExcludes and logicalHashCodeIncludes fields
             createIncludeExcludeFields(cNode, excludes, includes);
 
             // logicalHashCodeProperties field
-            createLogicalHashCodePropertiesField(cNode, propertyNodesToUse);
+            createLogicalHashCodePropertiesField(cNode, LOGICAL_HASHCODE_PROPS_FIELD, propertyNodesToUse);
 
             // lastHashCode field
             createLastHashCodeField(cNode);
@@ -160,11 +280,39 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
             // hashCodeChangeCallback field
             createHashCodeChangeCallbackField(cNode, changeCallbackClassNode);
 
+            // cachedHashCode field
+            FieldNode cachedHashCodeField = (immutable ? createCachedHashCodeField(cNode) : null);
+
             // hashCode()
-            createHashCode(cNode, propertyNodesToUse);
+            createHashCode(cNode, propertyNodesToUse, cachedHashCodeField, metrics);
 
             // equals()
-            createEquals(cNode);
+            createEquals(cNode, metrics);
+
+            // logicalHashCodeProperties<Name> field, hashCode<Name>() and
+            // equals<Name>() for each key group
+            for (Map.Entry<String, List<PropertyNode>> keyGroup : keyGroups.entrySet()) {
+                String suffix = capitalize(keyGroup.getKey());
+                createLogicalHashCodePropertiesField(cNode, LOGICAL_HASHCODE_PROPS_FIELD + suffix, keyGroup.getValue());
+                createKeyGroupHashCode(cNode, "hashCode" + suffix, keyGroup.getValue());
+                createKeyGroupEquals(cNode, "equals" + suffix, keyGroup.getValue());
+            }
+
+            // logicalPropertyHashes() and logicalDiff()
+            createLogicalPropertyHashes(cNode, propertyNodesToUse);
+            createLogicalDiff(cNode, propertyNodesToUse);
+            createLogicalDiffWords(cNode, propertyNodesToUse);
+
+            // getLogicalPropertyValue(index) and getLogicalPropertyCount()
+            createLogicalPropertyValue(cNode, propertyNodesToUse);
+            createLogicalPropertyCount(cNode, propertyNodesToUse);
+
+            // logicalKeySize() and writeLogicalKey()
+            createLogicalKeySize(cNode, propertyNodesToUse);
+            createWriteLogicalKey(cNode, propertyNodesToUse);
+
+            // static logicalHashCodeOf(Map) and logicalHashCodeOf(Object[])
+            createLogicalHashCodeOf(cNode, propertyNodesToUse);
 
             // getters for the fields we added
             createGetter(cNode, EXCLUDES_FIELD);
@@ -178,6 +326,55 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
 
     }
 
+    /**
+     * Appends a line with the time spent transforming the class, and the
+     * running total for the compilation, to the report file.  A failure to
+     * write the report is a compiler warning rather than an error.
+     */
+    private static void report(ClassNode cNode, SourceUnit source, long nanos, File reportFile) {
+        long totalNanos = nanos;
+        long totalClasses = 1;
+        CompileUnit unit = (source != null && source.getAST() != null ? source.getAST().getUnit() : null);
+        // also keeps lines from concurrent compilations from interleaving
+        synchronized (REPORT_TOTALS) {
+            if (unit != null) {
+                long[] totals = REPORT_TOTALS.get(unit);
+                if (totals == null) {
+                    totals = new long[2];
+                    REPORT_TOTALS.put(unit, totals);
+                }
+                totalNanos = (totals[0] += nanos);
+                totalClasses = ++totals[1];
+            }
+            String line = String.format(
+                    Locale.ROOT,
+                    "%s: transformed %s in %.3f ms (%.3f ms for %d classes)%n",
+                    MY_TYPE_NAME,
+                    cNode.getName(),
+                    nanos / 1000000.0,
+                    totalNanos / 1000000.0,
+                    totalClasses
+            );
+            try {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile, true), "UTF-8");
+                try {
+                    writer.write(line);
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                if (source != null) {
+                    source.getErrorCollector().addWarning(
+                            WarningMessage.LIKELY_ERRORS,
+                            MY_TYPE_NAME + ": couldn't write the report to " + reportFile + ": " + e.getMessage(),
+                            Token.newString(cNode.getName(), cNode.getLineNumber(), cNode.getColumnNumber()),
+                            source
+                    );
+                }
+            }
+        }
+    }
+
     private static void createIncludeExcludeFields(ClassNode cNode, List<String> excludes, List<String> includes) {
         createIncludeExcludeField(cNode, EXCLUDES_FIELD, excludes);
         createIncludeExcludeField(cNode, INCLUDES_FIELD, includes);
@@ -205,24 +402,130 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
         // If includes is set: Property must be in includes list and not in
         // optional excludes list.
         // If includes is not set: Property must not be in excludes list.
-        List<PropertyNode> foundProperties = new LinkedList<PropertyNode>();
-        while (cNode != null && !cNode.getName().equals("java.lang.Object")) {
-            if (cNode.getProperties() != null) {
-                for (PropertyNode propertyNode : cNode.getProperties()) {
-                    boolean eval1 = (includes == null || includes.size() == 0 || includes.contains(propertyNode.getName()));
-                    boolean eval2 = (excludes == null || excludes.size() == 0 || !excludes.contains(propertyNode.getName()));
-                    if (eval1 && eval2) {
-                        foundProperties.add(propertyNode);
-                    }
-                }
+        Set<String> includeSet = (includes == null || includes.size() == 0 ? null : new HashSet<String>(includes));
+        Set<String> excludeSet = (excludes == null || excludes.size() == 0 ? null : new HashSet<String>(excludes));
+        List<PropertyNode> allProperties = getAllProperties(cNode);
+        if (includeSet == null && excludeSet == null) {
+            return new ArrayList<PropertyNode>(allProperties);
+        }
+        List<PropertyNode> foundProperties = new ArrayList<PropertyNode>(includeSet != null ? includeSet.size() : allProperties.size());
+        for (PropertyNode propertyNode : allProperties) {
+            boolean eval1 = (includeSet == null || includeSet.contains(propertyNode.getName()));
+            boolean eval2 = (excludeSet == null || !excludeSet.contains(propertyNode.getName()));
+            if (eval1 && eval2) {
+                foundProperties.add(propertyNode);
             }
-            cNode = cNode.getSuperClass();
         }
         return foundProperties;
     }
 
-    private static FieldNode createLogicalHashCodePropertiesField(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
-        FieldNode existing = cNode.getDeclaredField(LOGICAL_HASHCODE_PROPS_FIELD);
+    /**
+     * @return The properties of the class followed by the properties of its superclasses.  Don't modify the returned list.
+     */
+    private static List<PropertyNode> getAllProperties(ClassNode cNode) {
+        if (cNode == null || cNode.getName().equals("java.lang.Object")) {
+            return Collections.emptyList();
+        }
+
+        // The result is cached in the ClassNodes being compiled, so
+        // subclasses reuse the superclass list.  It's resolved again if a
+        // property was added to the class or a superclass since.  ClassNodes
+        // of precompiled classes can be shared between compilations and
+        // aren't cached, so their lists are rebuilt on every call and the
+        // superclass lists are compared by content rather than identity.
+        ClassNode node = cNode.redirect();
+        List<PropertyNode> superProperties = getAllProperties(node.getSuperClass());
+        List<PropertyNode> declaredProperties = node.getProperties();
+        int declaredCount = (declaredProperties != null ? declaredProperties.size() : 0);
+        ResolvedProperties resolved = (node.isPrimaryClassNode() ? (ResolvedProperties) node.getNodeMetaData(RESOLVED_PROPERTIES_KEY) : null);
+        if (resolved != null && resolved.declaredCount == declaredCount && resolved.superProperties.equals(superProperties)) {
+            return resolved.properties;
+        }
+
+        List<PropertyNode> properties = new ArrayList<PropertyNode>(declaredCount + superProperties.size());
+        if (declaredProperties != null) {
+            properties.addAll(declaredProperties);
+        }
+        properties.addAll(superProperties);
+        if (node.isPrimaryClassNode()) {
+            node.removeNodeMetaData(RESOLVED_PROPERTIES_KEY);
+            node.setNodeMetaData(RESOLVED_PROPERTIES_KEY, new ResolvedProperties(declaredCount, superProperties, properties));
+        }
+        return properties;
+    }
+
+    /**
+     * The class is considered immutable if annotated with @Immutable or if
+     * every logical property is final and of a type whose values can't
+     * change.
+     */
+    private static boolean isImmutable(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        for (AnnotationNode annotation : cNode.getAnnotations()) {
+            if (IMMUTABLE_ANNOTATION_NAMES.contains(annotation.getClassNode().getName())) {
+                return true;
+            }
+        }
+        for (PropertyNode pNode : propertyNodesToUse) {
+            ClassNode type = pNode.getType();
+            boolean immutableType = ClassHelper.isPrimitiveType(type) || IMMUTABLE_TYPE_NAMES.contains(type.getName());
+            if (!immutableType || (pNode.getModifiers() & ACC_FINAL) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A map of key group name to the properties in the group, or null if there was an error in the keyGroups parameter.
+     */
+    private Map<String, List<PropertyNode>> getKeyGroups(ClassNode cNode, AnnotationNode anno) {
+        Map<String, List<PropertyNode>> keyGroups = new LinkedHashMap<String, List<PropertyNode>>();
+        // the generated method and field names use the capitalized name
+        Set<String> suffixes = new HashSet<String>();
+        Expression member = anno.getMember("keyGroups");
+        if (member == null) return keyGroups;
+
+        List<Expression> groupExpressions = (member instanceof ListExpression ? ((ListExpression) member).getExpressions() : Collections.singletonList(member));
+        for (Expression groupExpression : groupExpressions) {
+            if (!(groupExpression instanceof AnnotationConstantExpression)) {
+                addError("Error during " + MY_TYPE_NAME + " processing: 'keyGroups' must be a list of @LogicalKeyGroup annotations.", anno);
+                return null;
+            }
+            AnnotationNode groupAnno = (AnnotationNode) ((AnnotationConstantExpression) groupExpression).getValue();
+            String name = getMemberStringValue(groupAnno, "name");
+            List<String> includes = getMemberList(groupAnno, "includes");
+            if (name == null || name.length() == 0 || !isJavaIdentifier(name)) {
+                addError("Error during " + MY_TYPE_NAME + " processing: key group name '" + name + "' is not a valid identifier.", groupAnno);
+                return null;
+            }
+            if (!suffixes.add(capitalize(name))) {
+                addError("Error during " + MY_TYPE_NAME + " processing: key group name '" + name + "' is used more than once (names are capitalized in method names).", groupAnno);
+                return null;
+            }
+            if (includes == null || includes.isEmpty()) {
+                addError("Error during " + MY_TYPE_NAME + " processing: key group '" + name + "' has no 'includes'.", groupAnno);
+                return null;
+            }
+            List<PropertyNode> groupProperties = getLogicalHashCodeProperties(cNode, null, includes);
+            if (groupProperties.size() != includes.size()) {
+                addError("Error during " + MY_TYPE_NAME + " processing: key group '" + name + "' includes a property that doesn't exist or is listed more than once.", groupAnno);
+                return null;
+            }
+            keyGroups.put(name, groupProperties);
+        }
+        return keyGroups;
+    }
+
+    private static boolean isJavaIdentifier(String str) {
+        if (!Character.isJavaIdentifierStart(str.charAt(0))) return false;
+        for (int i = 1; i < str.length(); i++) {
+            if (!Character.isJavaIdentifierPart(str.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static FieldNode createLogicalHashCodePropertiesField(ClassNode cNode, String fieldName, List<PropertyNode> propertyNodesToUse) {
+        FieldNode existing = cNode.getDeclaredField(fieldName);
         if (existing != null) return existing;
 
         List<String> propertyNames = new ArrayList<String>(propertyNodesToUse.size());
@@ -231,7 +534,7 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
         }
 
         FieldNode fn = new FieldNode(
-                LOGICAL_HASHCODE_PROPS_FIELD,
+                fieldName,
                 ACC_PUBLIC | ACC_FINAL | ACC_STATIC,
                 LIST_STRING_TYPE,
                 cNode,
@@ -271,8 +574,66 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
         return fn;
     }
 
-    private static void createHashCode(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
-        if (!hasDeclaredMethod(cNode, "__hashCode", 0)) {
+    private static FieldNode createCachedHashCodeField(ClassNode cNode) {
+        FieldNode existing = cNode.getDeclaredField(CACHED_HASH_CODE_FIELD);
+        if (existing != null) return existing;
+
+        FieldNode fn = new FieldNode(
+                CACHED_HASH_CODE_FIELD,
+                ACC_PRIVATE | ACC_TRANSIENT,
+                ClassHelper.int_TYPE,
+                cNode,
+                constX(0)
+        );
+        cNode.addField(fn);
+        return fn;
+    }
+
+    private static FieldNode createHashingThreadField(ClassNode cNode) {
+        FieldNode existing = cNode.getDeclaredField(HASHING_THREAD_FIELD);
+        if (existing != null) return existing;
+
+        FieldNode fn = new FieldNode(
+                HASHING_THREAD_FIELD,
+                ACC_PRIVATE | ACC_TRANSIENT,
+                THREAD_TYPE,
+                cNode,
+                null
+        );
+        cNode.addField(fn);
+        return fn;
+    }
+
+    /**
+     * @param cachedHashCodeField When not null, the class is immutable and the hash code is cached in this field.
+     * @param metrics             When true, hashCode() reports to HashingMetricsRegistry.getMetrics().
+     */
+    private static void createHashCode(ClassNode cNode, List<PropertyNode> propertyNodesToUse, FieldNode cachedHashCodeField, boolean metrics) {
+        if (cachedHashCodeField != null) {
+            FieldNode hashingThreadField = createHashingThreadField(cNode);
+            if (!hasDeclaredMethod(cNode, "__computeHashCode", 1)) {
+                // add __computeHashCode() to class, only called by hashCode()
+                cNode.addMethod(new MethodNode(
+                        "__computeHashCode",
+                        ACC_PRIVATE,
+                        ClassHelper.int_TYPE, // returnType
+                        params(param(VISITMAP_TYPE, "visitMap")), // parameters
+                        ClassNode.EMPTY_ARRAY, // exceptions
+                        createComputeHashStatements(cNode, propertyNodesToUse, cachedHashCodeField, hashingThreadField, metrics)
+                ));
+            }
+            if (!hasDeclaredMethod(cNode, "__hashCode", 1)) {
+                // add __hashCode() to class
+                cNode.addMethod(new MethodNode(
+                        "__hashCode",
+                        ACC_PUBLIC,
+                        ClassHelper.int_TYPE, // returnType
+                        params(param(VISITMAP_TYPE, "visitMap")), // parameters
+                        ClassNode.EMPTY_ARRAY, // exceptions
+                        createImmutableHashStatements(cachedHashCodeField, hashingThreadField)
+                ));
+            }
+        } else if (!hasDeclaredMethod(cNode, "__hashCode", 0)) {
             // add __hashCode() to class
             cNode.addMethod(new MethodNode(
                     "__hashCode",
@@ -280,7 +641,7 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
                     ClassHelper.int_TYPE, // returnType
                     params(param(VISITMAP_TYPE, "visitMap")), // parameters
                     ClassNode.EMPTY_ARRAY, // exceptions
-                    createHashStatements(cNode, propertyNodesToUse)
+                    createHashStatements(cNode, propertyNodesToUse, null, metrics)
             ));
         }
 
@@ -292,15 +653,14 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
                     ClassHelper.int_TYPE, // returnType
                     Parameter.EMPTY_ARRAY, // parameters
                     ClassNode.EMPTY_ARRAY, // exceptions
-                    createWrapperHashStatements(cNode)
+                    createWrapperHashStatements(cNode, cachedHashCodeField, metrics)
             ));
         }
     }
 
-    private static BlockStatement createHashStatements(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+    private static Statement createHashStatements(ClassNode cNode, List<PropertyNode> propertyNodesToUse, FieldNode cachedHashCodeField, boolean metrics) {
         // HashCodeSalts.salts field
-        FieldNode saltsFieldNode = HASHCODESALTS_TYPE.getDeclaredField("salts");
-        assert saltsFieldNode.isPublic() && saltsFieldNode.isStatic();
+        assert SALTS_FIELD.isPublic() && SALTS_FIELD.isStatic();
 
         /**
          * (Pseudo-Code)
@@ -321,7 +681,26 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
          * }
          * return hashCode
          *
-         * null property values equal a hash code of 0.
+         * When immutable, this is the body of __computeHashCode(), which
+         * is only called by hashCode() with a new visitMap.  The hash code
+         * is cached instead of calling the change callback:
+         * ...
+         * cachedHashCode = hashCode
+         * return hashCode
+         *
+         * When metrics are enabled, the body is wrapped in:
+         * HashingTraversal.enter(visitMap)
+         * try {
+         *   ...
+         * }
+         * finally {
+         *   HashingTraversal.exit(visitMap)
+         * }
+         * and the change callback branch also calls
+         * HashingMetricsRegistry.getMetrics().hashCodeChangeCallbackFired(MyClass)
+         *
+         * null property values equal a hash code of 0.  Enum values are
+         * hashed by name().
          *
          * Returns getClass().name.hashCode() if logicalHashCodeProperties
          * is empty or all property values are null.
@@ -371,10 +750,7 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
                                                         "__hashCode",
                                                         varX("visitMap")
                                                 ),
-                                                callX(
-                                                        propValExpr,
-                                                        "hashCode"
-                                                )
+                                                nonNullValueHashCodeX(propValExpr, pNode.getType())
                                         )
                                 ),
                                 constX(0)
@@ -392,6 +768,33 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
                 callX(callX(callThisX("getClass"), "getName"), "hashCode")
         )));
 
+        if (cachedHashCodeField != null) {
+            body.addStatement(assignS(fieldX(cachedHashCodeField), varX("hashCode")));
+            body.addStatement(returnS(varX("hashCode")));
+            return (metrics ? createTraversalStatements(body) : body);
+        }
+
+        BlockStatement changeBlock = block(
+                declS(varX("lastHashArg", INT_TYPE), varX("lastHashCode")),
+                assignS(varX("lastHashCode"), varX("hashCode"))
+        );
+        if (metrics) {
+            changeBlock.addStatement(stmt(callX(
+                    callX(HASHINGMETRICSREGISTRY_TYPE, "getMetrics"),
+                    "hashCodeChangeCallbackFired",
+                    classX(cNode)
+            )));
+        }
+        changeBlock.addStatement(stmt(callX(
+                varX(HASH_CODE_CHANGE_CALLBACK_FIELD),
+                "hashCodeChange",
+                args(
+                        varX("this"),
+                        varX("lastHashArg"),
+                        varX("hashCode")
+                )
+        )));
+
         // Call the change callback if the hash code has changed
         body.addStatement(ifElseS(
                 andX(
@@ -401,19 +804,7 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
                         ),
                         neX(varX("hashCode"), varX("lastHashCode"))
                 ),
-                block(
-                        declS(varX("lastHashArg", INT_TYPE), varX("lastHashCode")),
-                        assignS(varX("lastHashCode"), varX("hashCode")),
-                        stmt(callX(
-                                varX(HASH_CODE_CHANGE_CALLBACK_FIELD),
-                                "hashCodeChange",
-                                args(
-                                        varX("this"),
-                                        varX("lastHashArg"),
-                                        varX("hashCode")
-                                )
-                        ))
-                ),
+                changeBlock,
                 block(
                         assignS(varX("lastHashCode"), varX("hashCode"))
                 )
@@ -422,19 +813,85 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
         body.addStatement(assignS(varX("lastHashCode"), varX("hashCode")));
         body.addStatement(returnS(varX("hashCode")));
 
-        return body;
+        return (metrics ? createTraversalStatements(body) : body);
     }
 
-    private static BlockStatement createWrapperHashStatements(ClassNode cNode) {
+    private static Statement createComputeHashStatements(ClassNode cNode, List<PropertyNode> propertyNodesToUse, FieldNode cachedHashCodeField, FieldNode hashingThreadField, boolean metrics) {
+        /**
+         * hashingThread = Thread.currentThread()
+         * try {
+         *   (the immutable hash statements)
+         * }
+         * finally {
+         *   hashingThread = null
+         * }
+         */
+        return block(
+                assignS(fieldX(hashingThreadField), callX(THREAD_TYPE, "currentThread")),
+                new TryCatchStatement(
+                        createHashStatements(cNode, propertyNodesToUse, cachedHashCodeField, metrics),
+                        assignS(fieldX(hashingThreadField), constX(null))
+                )
+        );
+    }
+
+    private static Statement createImmutableHashStatements(FieldNode cachedHashCodeField, FieldNode hashingThreadField) {
+        /**
+         * The hash code of an immutable object is always calculated with
+         * its own visitMap, so that what the caller's visitMap already
+         * holds isn't left out of the cached value.
+         *
+         * if(cachedHashCode != 0) return cachedHashCode
+         * // a circular reference back to this object while hashCode() is calculating it
+         * if(hashingThread == Thread.currentThread()) return 0
+         * return hashCode()
+         */
+        return block(
+                createCachedHashCodeReturnStatement(cachedHashCodeField),
+                ifS(sameX(fieldX(hashingThreadField), callX(THREAD_TYPE, "currentThread")), returnS(constX(0))),
+                returnS(callThisX("hashCode"))
+        );
+    }
+
+    private static Statement createTraversalStatements(Statement hashStatements) {
+        /**
+         * HashingTraversal.enter(visitMap)
+         * try {
+         *   hashStatements
+         * }
+         * finally {
+         *   HashingTraversal.exit(visitMap)
+         * }
+         */
+        return block(
+                stmt(callX(HASHINGTRAVERSAL_TYPE, "enter", varX("visitMap"))),
+                new TryCatchStatement(hashStatements, stmt(callX(HASHINGTRAVERSAL_TYPE, "exit", varX("visitMap"))))
+        );
+    }
+
+    private static Statement createCachedHashCodeReturnStatement(FieldNode cachedHashCodeField) {
+        // if(cachedHashCode != 0) return cachedHashCode
+        return ifS(neX(fieldX(cachedHashCodeField), constX(0)), returnS(fieldX(cachedHashCodeField)));
+    }
+
+    private static BlockStatement createWrapperHashStatements(ClassNode cNode, FieldNode cachedHashCodeField, boolean metrics) {
+        if (metrics) {
+            return createMetricsWrapperHashStatements(cNode, cachedHashCodeField);
+        }
+
         /**
          * Add the following code:
          * {@code
+         * if(cachedHashCode != 0) return cachedHashCode // when immutable
          * HashMap<Integer,Boolean> visitMap = new HashMap<Integer,Boolean>()
          * visitMap.put(System.identityHashCode(this), Boolean.TRUE)
-         * return __hashCode(visitMap)
+         * return __hashCode(visitMap) // __computeHashCode(visitMap) when immutable
          * }
          */
         BlockStatement body = new BlockStatement();
+        if (cachedHashCodeField != null) {
+            body.addStatement(createCachedHashCodeReturnStatement(cachedHashCodeField));
+        }
         body.addStatement(declS(varX("visitMap", VISITMAP_TYPE), ctorX(VISITMAP_TYPE)));
         body.addStatement(new ExpressionStatement(callX(
                 varX("visitMap"),
@@ -444,11 +901,71 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
                         fieldX(BOOLEAN_TYPE, "TRUE")
                 )
         )));
-        body.addStatement(returnS(callThisX("__hashCode", varX("visitMap"))));
+        body.addStatement(returnS(callThisX(cachedHashCodeField != null ? "__computeHashCode" : "__hashCode", varX("visitMap"))));
+        return body;
+    }
+
+    private static BlockStatement createMetricsWrapperHashStatements(ClassNode cNode, FieldNode cachedHashCodeField) {
+        /**
+         * Add the following code:
+         * {@code
+         * long startTime = System.nanoTime()
+         * // when immutable
+         * if(cachedHashCode != 0) {
+         *   HashingMetricsRegistry.getMetrics().hashCodeCalled(MyClass, System.nanoTime() - startTime, 0, 0, 0)
+         *   return cachedHashCode
+         * }
+         * HashingTraversal visitMap = new HashingTraversal()
+         * visitMap.put(System.identityHashCode(this), Boolean.TRUE)
+         * int hashCode = __hashCode(visitMap) // __computeHashCode(visitMap) when immutable
+         * HashingMetricsRegistry.getMetrics().hashCodeCalled(MyClass, System.nanoTime() - startTime, visitMap.getMaxDepth(), visitMap.size(), visitMap.getCycleHits())
+         * return hashCode
+         * }
+         */
+        BlockStatement body = new BlockStatement();
+        body.addStatement(declS(varX("startTime", ClassHelper.long_TYPE), callX(SYSTEM_TYPE, "nanoTime")));
+        if (cachedHashCodeField != null) {
+            body.addStatement(ifS(
+                    neX(fieldX(cachedHashCodeField), constX(0)),
+                    block(
+                            stmt(hashCodeCalledX(cNode, constX(0), constX(0), constX(0))),
+                            returnS(fieldX(cachedHashCodeField))
+                    )
+            ));
+        }
+        body.addStatement(declS(varX("visitMap", HASHINGTRAVERSAL_TYPE), ctorX(HASHINGTRAVERSAL_TYPE)));
+        body.addStatement(new ExpressionStatement(callX(
+                varX("visitMap"),
+                "put",
+                args(
+                        callX(SYSTEM_TYPE, "identityHashCode", varX("this")),
+                        fieldX(BOOLEAN_TYPE, "TRUE")
+                )
+        )));
+        body.addStatement(declS(varX("hashCode", ClassHelper.int_TYPE), callThisX(cachedHashCodeField != null ? "__computeHashCode" : "__hashCode", varX("visitMap"))));
+        body.addStatement(stmt(hashCodeCalledX(
+                cNode,
+                callX(varX("visitMap"), "getMaxDepth"),
+                callX(varX("visitMap"), "size"),
+                callX(varX("visitMap"), "getCycleHits")
+        )));
+        body.addStatement(returnS(varX("hashCode")));
         return body;
     }
 
-    private static void createEquals(ClassNode cNode) {
+    private static Expression hashCodeCalledX(ClassNode cNode, Expression depth, Expression nodesVisited, Expression cycleHits) {
+        return callX(
+                callX(HASHINGMETRICSREGISTRY_TYPE, "getMetrics"),
+                "hashCodeCalled",
+                args(classX(cNode), elapsedNanosX(), depth, nodesVisited, cycleHits)
+        );
+    }
+
+    private static Expression elapsedNanosX() {
+        return new BinaryExpression(callX(SYSTEM_TYPE, "nanoTime"), MINUS, varX("startTime"));
+    }
+
+    private static void createEquals(ClassNode cNode, boolean metrics) {
         if (hasDeclaredMethod(cNode, "equals", 0)) return;
 
         // parameter to equals()
@@ -456,7 +973,24 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
 
         // method body
         final BlockStatement body = new BlockStatement();
-        body.addStatement(createEqualsStatements(objVar));
+        if (metrics) {
+            /**
+             * long startTime = System.nanoTime()
+             * boolean result = (equals expression)
+             * HashingMetricsRegistry.getMetrics().equalsCalled(MyClass, System.nanoTime() - startTime)
+             * return result
+             */
+            body.addStatement(declS(varX("startTime", ClassHelper.long_TYPE), callX(SYSTEM_TYPE, "nanoTime")));
+            body.addStatement(declS(varX("result", ClassHelper.boolean_TYPE), createEqualsExpression(objVar)));
+            body.addStatement(stmt(callX(
+                    callX(HASHINGMETRICSREGISTRY_TYPE, "getMetrics"),
+                    "equalsCalled",
+                    args(classX(cNode), elapsedNanosX())
+            )));
+            body.addStatement(returnS(varX("result")));
+        } else {
+            body.addStatement(returnS(createEqualsExpression(objVar)));
+        }
 
         // add method to class
         cNode.addMethod(new MethodNode(
@@ -469,15 +1003,603 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
         ));
     }
 
-    private static Statement createEqualsStatements(VariableExpression objVar) {
+    private static Expression createEqualsExpression(VariableExpression objVar) {
         /**
-         * Add the following code;
-         * return (obj != null && obj instanceof LogicalEqualsAndHashCodeInterface && obj.hashCode() == hashCode())
+         * (obj != null && obj instanceof LogicalEqualsAndHashCodeInterface && obj.hashCode() == hashCode())
          */
         BooleanExpression notNull = notNullX(objVar);
         BooleanExpression isInstanceOf = isInstanceOfX(objVar, LOGICALEQUALSHASHCODE_INTERFACE_TYPE);
         BinaryExpression hashCodeEquals = eqX(callX(objVar, "hashCode"), callThisX("hashCode"));
-        return returnS(andX(andX(notNull, isInstanceOf), hashCodeEquals));
+        return andX(andX(notNull, isInstanceOf), hashCodeEquals);
+    }
+
+    private static void createKeyGroupHashCode(ClassNode cNode, String methodName, List<PropertyNode> groupProperties) {
+        if (hasDeclaredMethod(cNode, methodName, 0)) return;
+
+        /**
+         * (Pseudo-Code)
+         * int hashCodeCalc =
+         *   (getter(groupProperties[0]) != null ? salts[0] * getter(groupProperties[0]).hashCode() : 0)
+         *   ^ ...
+         *   ^
+         *   (getter(groupProperties[N]) != null ? salts[N] * getter(groupProperties[N]).hashCode() : 0)
+         * return hashCodeCalc ?: getClass().name.hashCode()
+         *
+         * Each getter is only called once and no visitMap is allocated.
+         * Annotated property values use their own hashCode(), which does
+         * its own circular reference detection.
+         */
+
+        final BlockStatement body = new BlockStatement();
+        Expression lastExpression = constX(0);
+        int propertyIndex = 0;
+        for (PropertyNode pNode : groupProperties) {
+            VariableExpression valueVar = varX("value" + propertyIndex, pNode.getType());
+            body.addStatement(declS(valueVar, getterThisX(cNode, pNode)));
+            lastExpression = xorX(lastExpression, multX(
+                    indexX(fieldX(HASHCODESALTS_TYPE, "salts"), constX(propertyIndex)),
+                    valueHashCodeX(valueVar, pNode.getType())
+            ));
+            propertyIndex++;
+        }
+        body.addStatement(declS(varX("hashCodeCalc", ClassHelper.int_TYPE), lastExpression));
+        body.addStatement(returnS(ternaryX(
+                neX(varX("hashCodeCalc"), constX(0)),
+                varX("hashCodeCalc"),
+                callX(callX(callThisX("getClass"), "getName"), "hashCode")
+        )));
+
+        cNode.addMethod(new MethodNode(
+                methodName,
+                ACC_PUBLIC,
+                ClassHelper.int_TYPE, // returnType
+                Parameter.EMPTY_ARRAY, // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                body
+        ));
+    }
+
+    private static void createKeyGroupEquals(ClassNode cNode, String methodName, List<PropertyNode> groupProperties) {
+        if (hasDeclaredMethod(cNode, methodName, 1)) return;
+
+        /**
+         * (Pseudo-Code)
+         * if(obj.is(this)) return true
+         * if(!(obj instanceof ThisClass)) return false
+         * ThisClass other = (ThisClass)obj
+         * return Objects.equals(getter(groupProperties[0]), other.getter(groupProperties[0]))
+         *   && ...
+         *   && Objects.equals(getter(groupProperties[N]), other.getter(groupProperties[N]))
+         *
+         * Primitive property values are compared with ==.
+         */
+
+        VariableExpression objVar = varX("obj");
+        VariableExpression otherVar = varX("other", cNode);
+        final BlockStatement body = new BlockStatement();
+        body.addStatement(ifS(sameX(objVar, varX("this")), returnS(constX(true))));
+        body.addStatement(ifS(notX(isInstanceOfX(objVar, cNode)), returnS(constX(false))));
+        body.addStatement(declS(otherVar, castX(cNode, objVar)));
+        Expression lastExpression = constX(true);
+        for (PropertyNode pNode : groupProperties) {
+            lastExpression = andX(lastExpression, valuesEqualX(
+                    getterThisX(cNode, pNode),
+                    otherGetterX(otherVar, pNode),
+                    pNode.getType()
+            ));
+        }
+        body.addStatement(returnS(lastExpression));
+
+        cNode.addMethod(new MethodNode(
+                methodName,
+                ACC_PUBLIC,
+                ClassHelper.boolean_TYPE, // returnType
+                params(param(OBJECT_TYPE, objVar.getName())), // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                body
+        ));
+    }
+
+    private static void createLogicalPropertyHashes(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        if (hasDeclaredMethod(cNode, "logicalPropertyHashes", 1)) return;
+
+        /**
+         * (Pseudo-Code)
+         * out[0] = (getter(logicalHashCodeProperties[0]) != null && !getter(logicalHashCodeProperties[0]).is(this) ? getter(logicalHashCodeProperties[0]).hashCode() : 0)
+         * ...
+         * out[N] = (getter(logicalHashCodeProperties[N]) != null && !getter(logicalHashCodeProperties[N]).is(this) ? getter(logicalHashCodeProperties[N]).hashCode() : 0)
+         *
+         * Each getter is only called once and no visitMap is allocated.
+         */
+
+        VariableExpression outVar = varX("out", ClassHelper.int_TYPE.makeArray());
+        final BlockStatement body = new BlockStatement();
+        int propertyIndex = 0;
+        for (PropertyNode pNode : propertyNodesToUse) {
+            VariableExpression valueVar = varX("value" + propertyIndex, pNode.getType());
+            body.addStatement(declS(valueVar, getterThisX(cNode, pNode)));
+            Expression valueHashCode = valueHashCodeX(valueVar, pNode.getType());
+            if (!ClassHelper.isPrimitiveType(pNode.getType())) {
+                // a reference to this would be circular
+                valueHashCode = ternaryX(sameX(valueVar, varX("this")), constX(0), valueHashCode);
+            }
+            body.addStatement(assignS(indexX(outVar, constX(propertyIndex)), valueHashCode));
+            propertyIndex++;
+        }
+
+        cNode.addMethod(new MethodNode(
+                "logicalPropertyHashes",
+                ACC_PUBLIC,
+                ClassHelper.VOID_TYPE, // returnType
+                params(param(ClassHelper.int_TYPE.makeArray(), outVar.getName())), // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                body
+        ));
+    }
+
+    private static void createLogicalDiff(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        if (hasDeclaredMethod(cNode, "logicalDiff", 1)) return;
+
+        /**
+         * (Pseudo-Code)
+         * if(!(obj instanceof ThisClass)) return (all property bits set)
+         * ThisClass other = (ThisClass)obj
+         * long diff = 0L
+         * if(!Objects.equals(getter(logicalHashCodeProperties[0]), other.getter(logicalHashCodeProperties[0]))) diff = diff | (1L << 0)
+         * ...
+         * if(!Objects.equals(getter(logicalHashCodeProperties[N]), other.getter(logicalHashCodeProperties[N]))) diff = diff | (1L << N)
+         * return diff
+         *
+         * Primitive property values are compared with ==.  With more than
+         * 64 properties, the differences can't fit in the long and an
+         * UnsupportedOperationException is thrown instead.  The
+         * logicalDiff(Object, long[]) variant works for any number of
+         * properties.
+         */
+
+        VariableExpression objVar = varX("obj");
+        final BlockStatement body = new BlockStatement();
+        if (propertyNodesToUse.size() > MAX_DIFF_PROPERTIES) {
+            body.addStatement(throwS(ctorX(
+                    UNSUPPORTEDOPERATIONEXCEPTION_TYPE,
+                    constX("logicalDiff() supports at most " + MAX_DIFF_PROPERTIES + " logical properties")
+            )));
+        } else {
+            long allPropertyBits = (propertyNodesToUse.size() == MAX_DIFF_PROPERTIES ? -1L : (1L << propertyNodesToUse.size()) - 1);
+            VariableExpression otherVar = varX("other", cNode);
+            VariableExpression diffVar = varX("diff", ClassHelper.long_TYPE);
+            body.addStatement(ifS(notX(isInstanceOfX(objVar, cNode)), returnS(constX(allPropertyBits))));
+            body.addStatement(declS(otherVar, castX(cNode, objVar)));
+            body.addStatement(declS(diffVar, constX(0L)));
+            int propertyIndex = 0;
+            for (PropertyNode pNode : propertyNodesToUse) {
+                body.addStatement(ifS(
+                        notX(valuesEqualX(getterThisX(cNode, pNode), otherGetterX(otherVar, pNode), pNode.getType())),
+                        assignS(diffVar, new BinaryExpression(diffVar, BITWISE_OR, constX(1L << propertyIndex)))
+                ));
+                propertyIndex++;
+            }
+            body.addStatement(returnS(diffVar));
+        }
+
+        cNode.addMethod(new MethodNode(
+                "logicalDiff",
+                ACC_PUBLIC,
+                ClassHelper.long_TYPE, // returnType
+                params(param(OBJECT_TYPE, objVar.getName())), // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                body
+        ));
+    }
+
+    private static void createLogicalDiffWords(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        if (hasDeclaredMethod(cNode, "logicalDiff", 2)) return;
+
+        /**
+         * (Pseudo-Code)
+         * if(!(obj instanceof ThisClass)) {
+         *   out[0] = (all property bits of word 0 set)
+         *   ...
+         *   return
+         * }
+         * ThisClass other = (ThisClass)obj
+         * out[0] = 0L
+         * ...
+         * if(!Objects.equals(getter(logicalHashCodeProperties[0]), other.getter(logicalHashCodeProperties[0]))) out[0] = out[0] | (1L << 0)
+         * ...
+         * if(!Objects.equals(getter(logicalHashCodeProperties[N]), other.getter(logicalHashCodeProperties[N]))) out[N / 64] = out[N / 64] | (1L << (N % 64))
+         */
+
+        VariableExpression objVar = varX("obj");
+        VariableExpression outVar = varX("out", ClassHelper.long_TYPE.makeArray());
+        VariableExpression otherVar = varX("other", cNode);
+        int propertyCount = propertyNodesToUse.size();
+        int words = (propertyCount + MAX_DIFF_PROPERTIES - 1) / MAX_DIFF_PROPERTIES;
+        final BlockStatement body = new BlockStatement();
+
+        BlockStatement allDifferent = new BlockStatement();
+        for (int word = 0; word < words; word++) {
+            int wordProperties = Math.min(MAX_DIFF_PROPERTIES, propertyCount - word * MAX_DIFF_PROPERTIES);
+            long wordBits = (wordProperties == MAX_DIFF_PROPERTIES ? -1L : (1L << wordProperties) - 1);
+            allDifferent.addStatement(assignS(indexX(outVar, constX(word)), constX(wordBits)));
+        }
+        allDifferent.addStatement(returnS(constX(null)));
+        body.addStatement(ifS(notX(isInstanceOfX(objVar, cNode)), allDifferent));
+
+        body.addStatement(declS(otherVar, castX(cNode, objVar)));
+        for (int word = 0; word < words; word++) {
+            body.addStatement(assignS(indexX(outVar, constX(word)), constX(0L)));
+        }
+        int propertyIndex = 0;
+        for (PropertyNode pNode : propertyNodesToUse) {
+            Expression wordExpr = indexX(outVar, constX(propertyIndex / MAX_DIFF_PROPERTIES));
+            body.addStatement(ifS(
+                    notX(valuesEqualX(getterThisX(cNode, pNode), otherGetterX(otherVar, pNode), pNode.getType())),
+                    assignS(wordExpr, new BinaryExpression(wordExpr, BITWISE_OR, constX(1L << (propertyIndex % MAX_DIFF_PROPERTIES))))
+            ));
+            propertyIndex++;
+        }
+
+        cNode.addMethod(new MethodNode(
+                "logicalDiff",
+                ACC_PUBLIC,
+                ClassHelper.VOID_TYPE, // returnType
+                params(param(OBJECT_TYPE, objVar.getName()), param(ClassHelper.long_TYPE.makeArray(), outVar.getName())), // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                body
+        ));
+    }
+
+    private static void createLogicalPropertyValue(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        if (hasDeclaredMethod(cNode, "getLogicalPropertyValue", 1)) return;
+
+        /**
+         * (Pseudo-Code)
+         * if(index < 0 || index >= N + 1) throw new IndexOutOfBoundsException("Logical property index: " + index)
+         * if(index < N/2) {
+         *   ...
+         *   return getter(logicalHashCodeProperties[0])
+         * }
+         * else {
+         *   ...
+         *   return getter(logicalHashCodeProperties[N])
+         * }
+         *
+         * Groovy compiles a switch statement to a chain of isCase() calls,
+         * so a binary search on the int index is used instead.
+         */
+
+        VariableExpression indexVar = varX("index", ClassHelper.int_TYPE);
+        final BlockStatement body = new BlockStatement();
+        body.addStatement(ifS(
+                orX(ltX(indexVar, constX(0)), notX(ltX(indexVar, constX(propertyNodesToUse.size())))),
+                throwS(ctorX(
+                        INDEXOUTOFBOUNDSEXCEPTION_TYPE,
+                        new BinaryExpression(constX("Logical property index: "), PLUS, indexVar)
+                ))
+        ));
+        if (!propertyNodesToUse.isEmpty()) {
+            body.addStatement(createPropertyValueSearch(cNode, propertyNodesToUse, indexVar, 0, propertyNodesToUse.size()));
+        } else {
+            body.addStatement(returnS(constX(null)));
+        }
+
+        cNode.addMethod(new MethodNode(
+                "getLogicalPropertyValue",
+                ACC_PUBLIC,
+                OBJECT_TYPE, // returnType
+                params(param(ClassHelper.int_TYPE, indexVar.getName())), // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                body
+        ));
+    }
+
+    /**
+     * Returns the getter value for the index, which is known to be within
+     * [from, to).
+     */
+    private static Statement createPropertyValueSearch(ClassNode cNode, List<PropertyNode> propertyNodesToUse, VariableExpression indexVar, int from, int to) {
+        if (to - from == 1) {
+            return returnS(getterThisX(cNode, propertyNodesToUse.get(from)));
+        }
+        int mid = (from + to) >>> 1;
+        return ifElseS(
+                ltX(indexVar, constX(mid)),
+                createPropertyValueSearch(cNode, propertyNodesToUse, indexVar, from, mid),
+                createPropertyValueSearch(cNode, propertyNodesToUse, indexVar, mid, to)
+        );
+    }
+
+    private static void createLogicalPropertyCount(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        if (hasDeclaredMethod(cNode, "getLogicalPropertyCount", 0)) return;
+
+        cNode.addMethod(new MethodNode(
+                "getLogicalPropertyCount",
+                ACC_PUBLIC,
+                ClassHelper.int_TYPE, // returnType
+                Parameter.EMPTY_ARRAY, // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                returnS(constX(propertyNodesToUse.size()))
+        ));
+    }
+
+    private static void createLogicalKeySize(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        if (hasDeclaredMethod(cNode, "logicalKeySize", 0)) return;
+
+        /**
+         * (Pseudo-Code)
+         * return LogicalKeys.KEY_LENGTH_SIZE
+         *   + LogicalKeys.valueSize(this, getter(logicalHashCodeProperties[0]))
+         *   + ...
+         *   + LogicalKeys.valueSize(this, getter(logicalHashCodeProperties[N]))
+         *
+         * If a property's declared type can never be encoded, this throws
+         * an UnsupportedOperationException instead.
+         */
+
+        Statement body = unsupportedLogicalKeyS(propertyNodesToUse);
+        if (body == null) {
+            Expression lastExpression = fieldX(LOGICALKEYS_TYPE, "KEY_LENGTH_SIZE");
+            for (PropertyNode pNode : propertyNodesToUse) {
+                lastExpression = new BinaryExpression(
+                        lastExpression,
+                        PLUS,
+                        callX(LOGICALKEYS_TYPE, "valueSize", args(varX("this"), getterThisX(cNode, pNode)))
+                );
+            }
+            body = returnS(lastExpression);
+        }
+
+        cNode.addMethod(new MethodNode(
+                "logicalKeySize",
+                ACC_PUBLIC,
+                ClassHelper.int_TYPE, // returnType
+                Parameter.EMPTY_ARRAY, // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                body
+        ));
+    }
+
+    private static void createWriteLogicalKey(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        if (hasDeclaredMethod(cNode, "writeLogicalKey", 1)) return;
+
+        /**
+         * (Pseudo-Code)
+         * LogicalKeys.writeKeyLength(buffer, logicalKeySize())
+         * LogicalKeys.writeValue(buffer, this, getter(logicalHashCodeProperties[0]))
+         * ...
+         * LogicalKeys.writeValue(buffer, this, getter(logicalHashCodeProperties[N]))
+         *
+         * If a property's declared type can never be encoded, this throws
+         * an UnsupportedOperationException instead.
+         */
+
+        VariableExpression bufferVar = varX("buffer", BYTEBUFFER_TYPE);
+        final BlockStatement body = new BlockStatement();
+        Statement unsupported = unsupportedLogicalKeyS(propertyNodesToUse);
+        if (unsupported != null) {
+            body.addStatement(unsupported);
+        } else {
+            body.addStatement(stmt(callX(LOGICALKEYS_TYPE, "writeKeyLength", args(bufferVar, callThisX("logicalKeySize")))));
+            for (PropertyNode pNode : propertyNodesToUse) {
+                body.addStatement(stmt(callX(LOGICALKEYS_TYPE, "writeValue", args(bufferVar, varX("this"), getterThisX(cNode, pNode)))));
+            }
+        }
+
+        cNode.addMethod(new MethodNode(
+                "writeLogicalKey",
+                ACC_PUBLIC,
+                ClassHelper.VOID_TYPE, // returnType
+                params(param(BYTEBUFFER_TYPE, bufferVar.getName())), // parameters
+                ClassNode.EMPTY_ARRAY, // exceptions
+                body
+        ));
+    }
+
+    /**
+     * @return A statement that throws an UnsupportedOperationException
+     * naming the properties whose declared types LogicalKeys can never
+     * encode, or null if every property might be encodable.
+     */
+    private static Statement unsupportedLogicalKeyS(List<PropertyNode> propertyNodesToUse) {
+        StringBuilder unsupported = null;
+        for (PropertyNode pNode : propertyNodesToUse) {
+            if (!isLogicalKeyType(pNode.getType())) {
+                unsupported = (unsupported == null ? new StringBuilder("Logical keys can't encode ") : unsupported.append(", "));
+                ClassNode type = pNode.getType();
+                unsupported.append(pNode.getName()).append(" (")
+                        .append(type.isArray() ? type.getComponentType().getName() + "[]" : type.getName()).append(")");
+            }
+        }
+        return (unsupported != null ? throwS(ctorX(UNSUPPORTEDOPERATIONEXCEPTION_TYPE, constX(unsupported.toString()))) : null);
+    }
+
+    /**
+     * @return false if LogicalKeys can't encode any value of the declared
+     * type.  Object, other interfaces, abstract classes and generic types
+     * might hold encodable values, so those are left to LogicalKeys to
+     * check at runtime.
+     */
+    private static boolean isLogicalKeyType(ClassNode type) {
+        if (type.equals(OBJECT_TYPE) || type.isGenericsPlaceHolder() || ClassHelper.isPrimitiveType(ClassHelper.getUnwrapper(type))) return true;
+        if (type.isArray()) return false;
+        for (ClassNode keyType : LOGICAL_KEY_TYPES) {
+            if (type.equals(keyType) || type.isDerivedFrom(keyType) || type.implementsInterface(keyType)) return true;
+        }
+        for (ClassNode superType = type; superType != null; superType = superType.getSuperClass()) {
+            if (!superType.getAnnotations(MY_TYPE).isEmpty()) return true;
+        }
+        for (ClassNode unorderedType : UNORDERED_TYPES) {
+            if (type.equals(unorderedType) || type.isDerivedFrom(unorderedType) || type.implementsInterface(unorderedType)) return false;
+        }
+        return type.isInterface() || type.isEnum() || Modifier.isAbstract(type.getModifiers());
+    }
+
+    private static void createLogicalHashCodeOf(ClassNode cNode, List<PropertyNode> propertyNodesToUse) {
+        VariableExpression valuesMapVar = varX("values", MAP_STRING_WILDCARD_TYPE);
+        VariableExpression valuesArrayVar = varX("values", OBJECT_TYPE.makeArray());
+        List<Expression> mapValues = new ArrayList<Expression>(propertyNodesToUse.size());
+        List<Expression> arrayValues = new ArrayList<Expression>(propertyNodesToUse.size());
+        int propertyIndex = 0;
+        for (PropertyNode pNode : propertyNodesToUse) {
+            mapValues.add(callX(valuesMapVar, "get", constX(pNode.getName())));
+            arrayValues.add(indexX(valuesArrayVar, constX(propertyIndex)));
+            propertyIndex++;
+        }
+
+        if (!hasDeclaredStaticMethod(cNode, "logicalHashCodeOf", MAP_STRING_WILDCARD_TYPE)) {
+            cNode.addMethod(new MethodNode(
+                    "logicalHashCodeOf",
+                    ACC_PUBLIC | ACC_STATIC,
+                    ClassHelper.int_TYPE, // returnType
+                    params(param(MAP_STRING_WILDCARD_TYPE, valuesMapVar.getName())), // parameters
+                    ClassNode.EMPTY_ARRAY, // exceptions
+                    createStaticHashStatements(cNode, propertyNodesToUse, mapValues)
+            ));
+        }
+
+        if (!hasDeclaredStaticMethod(cNode, "logicalHashCodeOf", valuesArrayVar.getType())) {
+            BlockStatement body = new BlockStatement();
+            body.addStatement(ifS(
+                    neX(propX(valuesArrayVar, "length"), constX(propertyNodesToUse.size())),
+                    throwS(ctorX(
+                            ILLEGALARGUMENTEXCEPTION_TYPE,
+                            constX("Expected " + propertyNodesToUse.size() + " values, one for each of the logicalHashCodeProperties")
+                    ))
+            ));
+            body.addStatement(createStaticHashStatements(cNode, propertyNodesToUse, arrayValues));
+            cNode.addMethod(new MethodNode(
+                    "logicalHashCodeOf",
+                    ACC_PUBLIC | ACC_STATIC,
+                    ClassHelper.int_TYPE, // returnType
+                    params(param(valuesArrayVar.getType(), valuesArrayVar.getName())), // parameters
+                    ClassNode.EMPTY_ARRAY, // exceptions
+                    body
+            ));
+        }
+    }
+
+    /**
+     * @return A <code>?</code> type argument.
+     */
+    private static GenericsType wildcardType() {
+        GenericsType wildcard = new GenericsType(ClassHelper.makeWithoutCaching("?"));
+        wildcard.setWildcard(true);
+        return wildcard;
+    }
+
+    private static boolean hasDeclaredStaticMethod(ClassNode cNode, String name, ClassNode parameterType) {
+        MethodNode existing = cNode.getDeclaredMethod(name, params(param(parameterType, "values")));
+        return existing != null && existing.isStatic();
+    }
+
+    /**
+     * Calculates the same hash code that hashCode() would return for an
+     * instance with the given property values.
+     */
+    private static BlockStatement createStaticHashStatements(ClassNode cNode, List<PropertyNode> propertyNodesToUse, List<Expression> rawValues) {
+        /**
+         * (Pseudo-Code)
+         * HashMap<Integer,Boolean> visitMap = null
+         * int hashCodeCalc = 0
+         * PropertyType value0 = (rawValues[0] != null ? (PropertyType)rawValues[0] : (primitive default or null))
+         * if(value0 != null) {
+         *   if(value0 instanceof LogicalEqualsAndHashCodeInterface) {
+         *     if(visitMap == null) visitMap = new HashMap<Integer,Boolean>()
+         *     if(!visitMap.containsKey(System.identityHashCode(value0))) hashCodeCalc = hashCodeCalc ^ (salts[0] * value0.__hashCode(visitMap))
+         *   }
+         *   else if(visitMap == null || !visitMap.containsKey(System.identityHashCode(value0))) {
+         *     hashCodeCalc = hashCodeCalc ^ (salts[0] * value0.hashCode()) // value0.name().hashCode() for enums
+         *   }
+         * }
+         * ...
+         * return hashCodeCalc ?: ThisClass.name.hashCode()
+         *
+         * The values are cast to the property types, as they would be when
+         * set on an instance.  The visitMap is shared by the values, as it
+         * is in __hashCode(), but it is only allocated if a value
+         * implements LogicalEqualsAndHashCodeInterface.
+         */
+
+        final BlockStatement body = new BlockStatement();
+        VariableExpression visitMapVar = varX("visitMap", VISITMAP_TYPE);
+        VariableExpression hashCodeCalcVar = varX("hashCodeCalc", ClassHelper.int_TYPE);
+        body.addStatement(declS(visitMapVar, constX(null)));
+        body.addStatement(declS(hashCodeCalcVar, constX(0)));
+        int propertyIndex = 0;
+        for (PropertyNode pNode : propertyNodesToUse) {
+            ClassNode type = pNode.getType();
+            Expression rawValue = rawValues.get(propertyIndex);
+            Expression defaultValue = (ClassHelper.isPrimitiveType(type)
+                    ? (ClassHelper.boolean_TYPE.equals(type) ? constX(false) : castX(type, constX(0)))
+                    : constX(null));
+            VariableExpression valueVar = varX("value" + propertyIndex, type);
+            body.addStatement(declS(valueVar, ternaryX(notNullX(rawValue), castX(type, rawValue), defaultValue)));
+
+            Expression saltExpr = indexX(fieldX(HASHCODESALTS_TYPE, "salts"), constX(propertyIndex));
+            Expression notVisitedExpr = notX(callX(visitMapVar, "containsKey", callX(SYSTEM_TYPE, "identityHashCode", valueVar)));
+            body.addStatement(ifS(notNullX(valueVar), ifElseS(
+                    isInstanceOfX(valueVar, LOGICALEQUALSHASHCODE_INTERFACE_TYPE),
+                    block(
+                            ifS(equalsNullX(visitMapVar), assignS(visitMapVar, ctorX(VISITMAP_TYPE))),
+                            ifS(notVisitedExpr, assignS(hashCodeCalcVar, xorX(
+                                    hashCodeCalcVar,
+                                    multX(saltExpr, callX(valueVar, "__hashCode", visitMapVar))
+                            )))
+                    ),
+                    ifS(orX(equalsNullX(visitMapVar), notVisitedExpr), assignS(hashCodeCalcVar, xorX(
+                            hashCodeCalcVar,
+                            multX(saltExpr, nonNullValueHashCodeX(valueVar, type))
+                    )))
+            )));
+            propertyIndex++;
+        }
+        body.addStatement(returnS(ternaryX(
+                neX(hashCodeCalcVar, constX(0)),
+                hashCodeCalcVar,
+                constX(cNode.getName().hashCode())
+        )));
+        return body;
+    }
+
+    /**
+     * The hash code of a property value, or 0 if the value is null.
+     */
+    private static Expression valueHashCodeX(Expression value, ClassNode type) {
+        if (ClassHelper.isPrimitiveType(type)) {
+            return callX(ClassHelper.getWrapper(type), "hashCode", value);
+        }
+        return ternaryX(notNullX(value), nonNullValueHashCodeX(value, type), constX(0));
+    }
+
+    /**
+     * The hash code of a property value that isn't null.  Enum values are
+     * hashed by name(), because Enum.hashCode() is identity-based and
+     * differs between JVM runs.
+     */
+    private static Expression nonNullValueHashCodeX(Expression value, ClassNode type) {
+        if (ClassHelper.isPrimitiveType(type)) {
+            return callX(ClassHelper.getWrapper(type), "hashCode", value);
+        }
+        Expression enumHashCode = callX(callX(castX(ENUM_TYPE, value), "name"), "hashCode");
+        if (type.isEnum()) {
+            return enumHashCode;
+        } else if (type.isInterface() || type.equals(OBJECT_TYPE) || type.equals(ENUM_TYPE)) {
+            // the value may be an enum
+            return ternaryX(isInstanceOfX(value, ENUM_TYPE), enumHashCode, callX(value, "hashCode"));
+        }
+        return callX(value, "hashCode");
+    }
+
+    private static Expression valuesEqualX(Expression lhs, Expression rhs, ClassNode type) {
+        if (ClassHelper.isPrimitiveType(type)) {
+            return eqX(lhs, rhs);
+        }
+        return callX(OBJECTS_TYPE, "equals", args(lhs, rhs));
+    }
+
+    private static Expression otherGetterX(VariableExpression otherVar, PropertyNode pNode) {
+        return callX(otherVar, "get" + capitalize(pNode.getName()));
     }
 
     private static void addInterface(ClassNode cNode) {
@@ -528,4 +1650,16 @@ public class LogicalEqualsAndHashCodeASTTransformation extends AbstractASTTransf
         return (str != null && str.length() > 0 ? str.substring(0, 1).toUpperCase()
                 + (str.length() > 1 ? str.substring(1) : "") : str);
     }
+
+    private static class ResolvedProperties {
+        final int declaredCount;
+        final List<PropertyNode> superProperties;
+        final List<PropertyNode> properties;
+
+        ResolvedProperties(int declaredCount, List<PropertyNode> superProperties, List<PropertyNode> properties) {
+            this.declaredCount = declaredCount;
+            this.superProperties = superProperties;
+            this.properties = properties;
+        }
+    }
 }
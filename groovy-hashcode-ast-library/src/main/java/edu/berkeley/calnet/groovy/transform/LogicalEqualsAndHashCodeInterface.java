@@ -27,8 +27,17 @@
 
 package edu.berkeley.calnet.groovy.transform;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
+/**
+ * Implemented by classes annotated with {@link LogicalEqualsAndHashCode}.
+ *
+ * The methods with default implementations were added after 1.0.  The
+ * defaults throw UnsupportedOperationException, so classes compiled with an
+ * earlier version, and hand-written implementations, don't fail with
+ * AbstractMethodError.
+ */
 public interface LogicalEqualsAndHashCodeInterface {
     public List<String> getLogicalHashCodeExcludes();
 
@@ -37,4 +46,75 @@ public interface LogicalEqualsAndHashCodeInterface {
     public List<String> getLogicalHashCodeProperties();
 
     public HashCodeChangeCallback getHashCodeChangeCallback();
+
+    /**
+     * Fills out[i] with the hash code of the value of the property at
+     * index i of getLogicalHashCodeProperties().  Null values, and values
+     * that are a reference back to this object, are 0.  Enum values are
+     * hashed by name().
+     *
+     * @param out An array at least as long as getLogicalHashCodeProperties().
+     */
+    public default void logicalPropertyHashes(int[] out) {
+        throw new UnsupportedOperationException("Recompile " + getClass().getName() + " with the current version of @LogicalEqualsAndHashCode");
+    }
+
+    /**
+     * Compares the logical property values of this object with another
+     * object of the same class.
+     *
+     * @return A bitmask where bit i is set if the values of the property at index i of getLogicalHashCodeProperties() are not equal.  If obj is null or not an instance of this class, the bits for all properties are set.
+     * @throws UnsupportedOperationException If the class has more than 64 logical properties.  Use {@link #logicalDiff(Object, long[])} instead.
+     */
+    public default long logicalDiff(Object obj) {
+        throw new UnsupportedOperationException("Recompile " + getClass().getName() + " with the current version of @LogicalEqualsAndHashCode");
+    }
+
+    /**
+     * Compares the logical property values of this object with another
+     * object of the same class, for any number of properties.  Bit (i % 64)
+     * of out[i / 64] is set if the values of the property at index i of
+     * getLogicalHashCodeProperties() are not equal, and the other bits of
+     * those words are cleared.  If obj is null or not an instance of this
+     * class, the bits for all properties are set.
+     *
+     * @param out An array of at least (getLogicalPropertyCount() + 63) / 64 words.
+     */
+    public default void logicalDiff(Object obj, long[] out) {
+        throw new UnsupportedOperationException("Recompile " + getClass().getName() + " with the current version of @LogicalEqualsAndHashCode");
+    }
+
+    /**
+     * @return The value of the property at index i of getLogicalHashCodeProperties(), read with a direct getter call rather than a dynamic property lookup.
+     * @throws IndexOutOfBoundsException If index is not within [0, getLogicalPropertyCount()).
+     */
+    public default Object getLogicalPropertyValue(int index) {
+        throw new UnsupportedOperationException("Recompile " + getClass().getName() + " with the current version of @LogicalEqualsAndHashCode");
+    }
+
+    /**
+     * @return The size of getLogicalHashCodeProperties().
+     */
+    public default int getLogicalPropertyCount() {
+        throw new UnsupportedOperationException("Recompile " + getClass().getName() + " with the current version of @LogicalEqualsAndHashCode");
+    }
+
+    /**
+     * @return The number of bytes writeLogicalKey() writes.
+     */
+    public default int logicalKeySize() {
+        throw new UnsupportedOperationException("Recompile " + getClass().getName() + " with the current version of @LogicalEqualsAndHashCode");
+    }
+
+    /**
+     * Writes the logical property values at the buffer's position, in the
+     * canonical binary form described in {@link LogicalKeys}, and advances
+     * the position.  Use {@link LogicalKeys#keyEquals} to compare a
+     * written key with an object.
+     *
+     * @throws java.nio.BufferOverflowException If the buffer doesn't have logicalKeySize() bytes remaining.
+     */
+    public default void writeLogicalKey(ByteBuffer buffer) {
+        throw new UnsupportedOperationException("Recompile " + getClass().getName() + " with the current version of @LogicalEqualsAndHashCode");
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link HashCodeChangeCallback} that relocates the entries for a key in
+ * the {@link LogicalHashMap} and {@link LogicalHashSet} collections that
+ * hold it when the hash code of the key changes.
+ *
+ * Usage:
+ *
+ * <code>
+ * @LogicalEqualsAndHashCode(changeCallbackClass = LogicalHashCollectionChangeCallback)
+ * class MyClass {
+ *     ...
+ * }
+ * </code>
+ *
+ * The collections record which of them hold each key whose class uses
+ * this callback.  Keys and collections are only weakly referenced, so the
+ * records go away when they are garbage collected.  Collections that
+ * don't hold the changed key are never touched.  Subclass this and call
+ * super.hashCodeChange() if additional change handling is needed.
+ *
+ * hashCodeChange() is called on the thread that called hashCode() on the
+ * changed key, and it modifies the collections that hold the key.  The
+ * collections aren't thread-safe, so a key that is shared between threads
+ * must be synchronized together with the collections holding it.
+ */
+public class LogicalHashCollectionChangeCallback implements HashCodeChangeCallback {
+    // the collections holding each tracked key, keyed by identity
+    private static final Map<IdentityKey, List<WeakReference<LogicalHashMap<?, ?>>>> holders = new HashMap<IdentityKey, List<WeakReference<LogicalHashMap<?, ?>>>>();
+    private static final ReferenceQueue<Object> clearedKeys = new ReferenceQueue<Object>();
+
+    /**
+     * @return true if the key's class uses this callback, so the collections holding the key need to be recorded.
+     */
+    static boolean isTracked(Object key) {
+        return ((LogicalEqualsAndHashCodeInterface) key).getHashCodeChangeCallback() instanceof LogicalHashCollectionChangeCallback;
+    }
+
+    /**
+     * Records that the map holds the key.
+     */
+    static void added(Object key, LogicalHashMap<?, ?> map) {
+        synchronized (holders) {
+            Reference<?> cleared;
+            while ((cleared = clearedKeys.poll()) != null) {
+                holders.remove(cleared);
+            }
+            List<WeakReference<LogicalHashMap<?, ?>>> maps = holders.get(new IdentityKey(key, null));
+            if (maps == null) {
+                maps = new ArrayList<WeakReference<LogicalHashMap<?, ?>>>(1);
+                holders.put(new IdentityKey(key, clearedKeys), maps);
+            }
+            maps.add(new WeakReference<LogicalHashMap<?, ?>>(map));
+        }
+    }
+
+    /**
+     * Records that the map no longer holds the key.
+     */
+    static void removed(Object key, LogicalHashMap<?, ?> map) {
+        synchronized (holders) {
+            IdentityKey identityKey = new IdentityKey(key, null);
+            List<WeakReference<LogicalHashMap<?, ?>>> maps = holders.get(identityKey);
+            if (maps == null) return;
+            boolean found = false;
+            for (int i = maps.size() - 1; i >= 0; i--) {
+                LogicalHashMap<?, ?> holder = maps.get(i).get();
+                // also drops the collections that were garbage collected
+                if (holder == null || (holder == map && !found)) {
+                    found |= (holder == map);
+                    maps.remove(i);
+                }
+            }
+            if (maps.isEmpty()) {
+                holders.remove(identityKey);
+            }
+        }
+    }
+
+    @Override
+    public void hashCodeChange(LogicalEqualsAndHashCodeInterface object, int oldHashCode, int newHashCode) {
+        List<LogicalHashMap<?, ?>> maps;
+        synchronized (holders) {
+            List<WeakReference<LogicalHashMap<?, ?>>> refs = holders.get(new IdentityKey(object, null));
+            if (refs == null) return;
+            // copied because relocating updates the records
+            maps = new ArrayList<LogicalHashMap<?, ?>>(refs.size());
+            for (WeakReference<LogicalHashMap<?, ?>> ref : refs) {
+                LogicalHashMap<?, ?> map = ref.get();
+                if (map != null) {
+                    maps.add(map);
+                }
+            }
+        }
+        for (LogicalHashMap<?, ?> map : maps) {
+            map.relocate(object, oldHashCode, newHashCode);
+        }
+    }
+
+    /**
+     * A weak reference that is equal to another one for the same referent.
+     * The hash code is the identity hash code, because the referent's own
+     * hash code is the thing that changes.
+     */
+    private static final class IdentityKey extends WeakReference<Object> {
+        private final int hash;
+
+        IdentityKey(Object key, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof IdentityKey)) return false;
+            Object key = get();
+            return key != null && key == ((IdentityKey) obj).get();
+        }
+    }
+}
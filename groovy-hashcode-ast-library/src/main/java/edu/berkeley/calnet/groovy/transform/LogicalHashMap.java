@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An open-addressing hash map for keys that implement
+ * {@link LogicalEqualsAndHashCodeInterface}.
+ *
+ * The hash code of each key is stored in a parallel int array when the key
+ * is added.  Lookups compare the stored hash codes before calling
+ * equals(), and growing the table never calls hashCode() on the keys.
+ *
+ * If the key class is annotated with
+ * <code>@LogicalEqualsAndHashCode(changeCallbackClass = LogicalHashCollectionChangeCallback)</code>
+ * then an entry is moved to its new location when a change in the key's
+ * hash code is detected.  Detection happens the next time hashCode() is
+ * called on the changed key (which any lookup with that key does).  If the
+ * table already holds a key with the new hash code, that key is kept and
+ * its value is replaced with the changed key's value, so the map shrinks
+ * by one entry.
+ *
+ * The key type is not bounded by {@link LogicalEqualsAndHashCodeInterface}
+ * because the annotation adds the interface after Groovy has checked
+ * generic type bounds.  Adding a key that doesn't implement the interface
+ * throws a ClassCastException instead.
+ *
+ * Null keys are not permitted.  Null values are.  This class is not
+ * thread-safe.
+ *
+ * With LogicalHashCollectionChangeCallback, the map records itself as a
+ * holder of each key it adds, and a relocation is only applied to the maps
+ * holding the changed key.  It runs on whichever thread calls hashCode() on
+ * the changed key, so a map can be modified by a thread that doesn't own
+ * it.  Only share such keys between threads when the collections holding
+ * them are externally synchronized together with them.
+ */
+public class LogicalHashMap<K, V> extends AbstractMap<K, V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final Object TOMBSTONE = new Object();
+
+    private int[] hashes;
+    private Object[] keys;
+    private Object[] values;
+    // live entries
+    private int size;
+    // live entries plus tombstones
+    private int used;
+    private int modCount;
+
+    public LogicalHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize The number of entries the map should be able to hold without growing.
+     */
+    public LogicalHashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize can't be negative: " + expectedSize);
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    public LogicalHashMap(Map<? extends K, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        // keep the load factor at or under 0.5
+        while (capacity < MAXIMUM_CAPACITY && capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        used = 0;
+    }
+
+    private static int spread(int hashCode) {
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    /**
+     * @return The slot index of the key or -1 if not found.
+     */
+    private int findSlot(Object key, int hashCode) {
+        int mask = keys.length - 1;
+        int i = spread(hashCode) & mask;
+        Object k;
+        while ((k = keys[i]) != null) {
+            if (k != TOMBSTONE && hashes[i] == hashCode) {
+                if (k == key) {
+                    return i;
+                }
+                // The generated equals() calls hashCode() on the stored
+                // key, which can relocate entries in this map, and even
+                // resize it, if a change in the key's hash code is
+                // detected.  Start the probe over when that happens.
+                int expectedModCount = modCount;
+                boolean equal = k.equals(key);
+                if (modCount != expectedModCount) {
+                    mask = keys.length - 1;
+                    i = spread(hashCode) & mask;
+                    continue;
+                }
+                if (equal) {
+                    return i;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an entry for a key that is known to not be in the table.
+     */
+    private void insert(int hashCode, Object key, Object value) {
+        if (used + 1 > keys.length / 2) {
+            // Grow if the live entries need the room, otherwise rebuild
+            // at the same capacity to clear out the tombstones.
+            resize(size + 1 > keys.length / 4 && keys.length < MAXIMUM_CAPACITY ? keys.length << 1 : keys.length);
+        }
+        int mask = keys.length - 1;
+        int i = spread(hashCode) & mask;
+        while (keys[i] != null && keys[i] != TOMBSTONE) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == null) {
+            used++;
+        }
+        hashes[i] = hashCode;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        modCount++;
+        if (LogicalHashCollectionChangeCallback.isTracked(key)) {
+            LogicalHashCollectionChangeCallback.added(key, this);
+        }
+    }
+
+    private void resize(int newCapacity) {
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object k = oldKeys[j];
+            if (k != null && k != TOMBSTONE) {
+                int i = spread(oldHashes[j]) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                hashes[i] = oldHashes[j];
+                keys[i] = k;
+                values[i] = oldValues[j];
+                used++;
+            }
+        }
+    }
+
+    private void removeAt(int i) {
+        Object key = keys[i];
+        if (LogicalHashCollectionChangeCallback.isTracked(key)) {
+            LogicalHashCollectionChangeCallback.removed(key, this);
+        }
+        keys[i] = TOMBSTONE;
+        values[i] = null;
+        size--;
+        modCount++;
+    }
+
+    /**
+     * Called by {@link LogicalHashCollectionChangeCallback} when the hash
+     * code of a key has changed.  Moves the entry for the key, if this map
+     * holds it, to the slot for the new hash code.
+     *
+     * If another key already has the new hash code then the two keys are
+     * now equal, and the relocated value replaces the existing key's value
+     * as if put() had been called with the changed key.
+     *
+     * Only the stored hash codes are compared here so that no hashCode()
+     * or equals() calls are made on keys while the table is in the middle
+     * of being changed.
+     */
+    void relocate(LogicalEqualsAndHashCodeInterface key, int oldHashCode, int newHashCode) {
+        int mask = keys.length - 1;
+        int i = spread(oldHashCode) & mask;
+        Object k;
+        while ((k = keys[i]) != null) {
+            if (k == key && hashes[i] == oldHashCode) {
+                Object value = values[i];
+                removeAt(i);
+                int existing = findStoredHash(newHashCode);
+                if (existing == -1) {
+                    insert(newHashCode, key, value);
+                } else {
+                    values[existing] = value;
+                }
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private int findStoredHash(int hashCode) {
+        int mask = keys.length - 1;
+        int i = spread(hashCode) & mask;
+        Object k;
+        while ((k = keys[i]) != null) {
+            if (k != TOMBSTONE && hashes[i] == hashCode) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof LogicalEqualsAndHashCodeInterface && findSlot(key, key.hashCode()) != -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (!(key instanceof LogicalEqualsAndHashCodeInterface)) return null;
+        int i = findSlot(key, key.hashCode());
+        return (i != -1 ? (V) values[i] : null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("LogicalHashMap does not permit null keys");
+        }
+        int hashCode = ((LogicalEqualsAndHashCodeInterface) key).hashCode();
+        int i = findSlot(key, hashCode);
+        if (i != -1) {
+            V oldValue = (V) values[i];
+            values[i] = value;
+            return oldValue;
+        }
+        insert(hashCode, key, value);
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (!(key instanceof LogicalEqualsAndHashCodeInterface)) return null;
+        int i = findSlot(key, key.hashCode());
+        if (i == -1) return null;
+        V oldValue = (V) values[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        if (used > 0) {
+            for (Object key : keys) {
+                if (key != null && key != TOMBSTONE && LogicalHashCollectionChangeCallback.isTracked(key)) {
+                    LogicalHashCollectionChangeCallback.removed(key, this);
+                }
+            }
+            allocate(keys.length);
+            size = 0;
+            modCount++;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new SlotIterator<Map.Entry<K, V>>() {
+                    @Override
+                    Map.Entry<K, V> slotValue(int i) {
+                        return new SlotEntry(i);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                LogicalHashMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new SlotIterator<K>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    K slotValue(int i) {
+                        return (K) keys[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                int sizeBefore = size;
+                LogicalHashMap.this.remove(o);
+                return size != sizeBefore;
+            }
+
+            @Override
+            public void clear() {
+                LogicalHashMap.this.clear();
+            }
+        };
+    }
+
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        private int next = advance(0);
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        private int advance(int i) {
+            while (i < keys.length && (keys[i] == null || keys[i] == TOMBSTONE)) {
+                i++;
+            }
+            return i;
+        }
+
+        abstract T slotValue(int i);
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.length;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (next >= keys.length) throw new NoSuchElementException();
+            last = next;
+            next = advance(next + 1);
+            return slotValue(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == -1) throw new IllegalStateException();
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            // tombstoning never moves other entries, so iteration can continue
+            removeAt(last);
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private class SlotEntry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int slot;
+
+        @SuppressWarnings("unchecked")
+        SlotEntry(int slot) {
+            super((K) keys[slot], (V) values[slot]);
+            this.slot = slot;
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (keys[slot] == getKey()) {
+                values[slot] = value;
+            } else {
+                LogicalHashMap.this.put(getKey(), value);
+            }
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * An open-addressing hash set for elements that implement
+ * {@link LogicalEqualsAndHashCodeInterface}, backed by a
+ * {@link LogicalHashMap}.  See {@link LogicalHashMap} for how stored hash
+ * codes are used and how elements are relocated when their hash code
+ * changes.
+ *
+ * Adding an element that doesn't implement
+ * {@link LogicalEqualsAndHashCodeInterface} throws a ClassCastException.
+ * Null elements are not permitted.  This class is not thread-safe.
+ */
+public class LogicalHashSet<E> extends AbstractSet<E> {
+    private static final Object PRESENT = new Object();
+
+    private final LogicalHashMap<E, Object> map;
+
+    public LogicalHashSet() {
+        map = new LogicalHashMap<E, Object>();
+    }
+
+    /**
+     * @param expectedSize The number of elements the set should be able to hold without growing.
+     */
+    public LogicalHashSet(int expectedSize) {
+        map = new LogicalHashMap<E, Object>(expectedSize);
+    }
+
+    public LogicalHashSet(Collection<? extends E> collection) {
+        map = new LogicalHashMap<E, Object>(collection.size());
+        addAll(collection);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return map.keySet().iterator();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return map.containsKey(o);
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (e == null) {
+            throw new NullPointerException("LogicalHashSet does not permit null elements");
+        }
+        return map.put(e, PRESENT) == null;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return map.remove(o) == PRESENT;
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent set of logical keys, for deduplicating
+ * {@link LogicalEqualsAndHashCodeInterface} objects across runs without
+ * holding them on the heap.
+ *
+ * Usage:
+ *
+ * <code>
+ * LogicalKeyDedupStore store = new LogicalKeyDedupStore(new File("seen.keys"))
+ * try {
+ *     for (Person person : people) {
+ *         if (!store.containsOrAdd(person)) {
+ *             // first time this person has been seen
+ *         }
+ *     }
+ * }
+ * finally {
+ *     store.close()
+ * }
+ * </code>
+ *
+ * The given file is an append-only log of the keys written by
+ * writeLogicalKey(), each followed by a CRC32 of its bytes.  The index is
+ * a memory-mapped, open-addressed table of 64-bit fingerprints of the keys
+ * and their offsets in the log.  A fingerprint match is confirmed by
+ * comparing the key bytes in the log, so fingerprint collisions don't
+ * cause false matches.
+ *
+ * The index is kept in a file with an ".index.N" suffix, where N
+ * increases each time the index grows or is rebuilt.  The new index is
+ * written to a new file instead of replacing the old one, because Java 8
+ * can't unmap a file and some platforms, such as Windows, don't allow a
+ * mapped file to be replaced or deleted.  Older index files are deleted
+ * once they are no longer used, or when the store is next opened if they
+ * were still mapped.
+ *
+ * A key is appended to the log before it is added to the index.  The
+ * index is marked as clean only by close(), so reopening after close() is
+ * immediate.  If the store wasn't closed, such as after a crash, the
+ * index is rebuilt from the log when it is reopened.  The log is
+ * truncated at the first key that is partially written or doesn't match
+ * its CRC32.  Call sync() to force the keys added so far to disk.
+ *
+ * Methods are synchronized.  Only one store should have the files open
+ * at a time.
+ */
+public class LogicalKeyDedupStore implements Closeable {
+    public static final long DEFAULT_INITIAL_CAPACITY = 1 << 16;
+
+    private static final long MAGIC = 0x4c4b445354524532L; // "LKDSTRE2"
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CLEAN_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+    private static final int LOG_LENGTH_OFFSET = 32;
+    private static final int SLOT_SIZE = 16;
+    private static final int CRC_SIZE = 4;
+    // 2^26 slots is a 1 GiB mapping
+    private static final int MAX_SEGMENT_SHIFT = 26;
+    private static final double MAX_LOAD = 0.7;
+
+    private final File logFile;
+    private final File indexDirectory;
+    private final String indexPrefix;
+    private final FileChannel log;
+    private long logLength;
+
+    private Index index;
+    // the highest index file generation seen
+    private long generation = -1;
+    private long count;
+
+    // reused so that lookups don't allocate
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer keyBuffer = ByteBuffer.allocate(256);
+    private ByteBuffer storedKeyBuffer = ByteBuffer.allocate(256);
+
+    public LogicalKeyDedupStore(File file) throws IOException {
+        this(file, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity The number of index slots to create a new index with.  Rounded up to a power of two.
+     */
+    public LogicalKeyDedupStore(File file, long initialCapacity) throws IOException {
+        this.logFile = file;
+        this.indexDirectory = file.getAbsoluteFile().getParentFile();
+        this.indexPrefix = file.getName() + ".index.";
+        this.log = new RandomAccessFile(logFile, "rw").getChannel();
+        try {
+            if (!openIndex()) {
+                rebuildIndex(Math.max(initialCapacity, index != null ? index.capacity : 0));
+            }
+            deleteOldIndexes();
+            // dirty until close()
+            index.header.putInt(CLEAN_OFFSET, 0);
+            index.header.force();
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        } catch (RuntimeException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the index file with the highest generation.
+     *
+     * @return false if there is no index or it wasn't closed cleanly and needs to be rebuilt.
+     */
+    private boolean openIndex() throws IOException {
+        File latest = null;
+        for (File indexFile : listIndexFiles()) {
+            long indexGeneration = indexGeneration(indexFile);
+            if (indexGeneration > generation) {
+                latest = indexFile;
+                generation = indexGeneration;
+            }
+        }
+        if (latest == null || latest.length() < HEADER_SIZE) return false;
+        index = new Index(latest);
+        count = index.header.getLong(COUNT_OFFSET);
+        logLength = index.header.getLong(LOG_LENGTH_OFFSET);
+        return index.capacity > 0
+                && index.header.getLong(MAGIC_OFFSET) == MAGIC
+                && index.header.getInt(CLEAN_OFFSET) == 1
+                && logLength == log.size()
+                && index.channel.size() == HEADER_SIZE + index.capacity * SLOT_SIZE;
+    }
+
+    /**
+     * Writes a new, empty index file with the given capacity and the next
+     * generation, and maps it.  The current index is left as is.
+     */
+    private Index createIndex(long newCapacity) throws IOException {
+        newCapacity = Math.max(Long.highestOneBit(Math.max(newCapacity, 2) - 1) << 1, 2);
+        File indexFile = new File(indexDirectory, indexPrefix + (generation + 1));
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + newCapacity * SLOT_SIZE);
+            raf.seek(MAGIC_OFFSET);
+            raf.writeLong(MAGIC);
+            raf.seek(CAPACITY_OFFSET);
+            raf.writeLong(newCapacity);
+        } finally {
+            raf.close();
+        }
+        generation++;
+        return new Index(indexFile);
+    }
+
+    /**
+     * Makes newIndex the current index, then closes the old one and deletes
+     * its file.
+     */
+    private void replaceIndex(Index newIndex) {
+        Index oldIndex = index;
+        index = newIndex;
+        writeHeaderCounts();
+        if (oldIndex != null) {
+            oldIndex.closeQuietly();
+            deleteOldIndexes();
+        }
+    }
+
+    /**
+     * Recreates the index from the keys in the log.  The log is truncated
+     * at the first key that is partially written or doesn't match its
+     * CRC32.
+     */
+    private void rebuildIndex(long newCapacity) throws IOException {
+        logLength = 0;
+        count = 0;
+        replaceIndex(createIndex(newCapacity));
+        long logSize = log.size();
+        long offset = 0;
+        while (offset < logSize) {
+            int keySize = readKeySize(offset, logSize);
+            if (keySize == -1 || !readStoredKey(offset, keySize + CRC_SIZE) || !storedKeyChecksumMatches(keySize)) {
+                break;
+            }
+            if (count + 1 > index.capacity * MAX_LOAD) {
+                grow();
+            }
+            index.insert(fingerprint(storedKeyBuffer, keySize), offset);
+            count++;
+            offset += keySize + CRC_SIZE;
+        }
+        if (offset < logSize) {
+            log.truncate(offset);
+        }
+        logLength = offset;
+        writeHeaderCounts();
+    }
+
+    /**
+     * @return The size of the key stored at offset in the log, or -1 if it and its CRC32 extend past logSize.
+     */
+    private int readKeySize(long offset, long logSize) throws IOException {
+        if (offset + LogicalKeys.KEY_LENGTH_SIZE > logSize || !readStoredKey(offset, LogicalKeys.KEY_LENGTH_SIZE)) {
+            return -1;
+        }
+        long keySize = LogicalKeys.storedKeySize(storedKeyBuffer, 0);
+        return (keySize >= LogicalKeys.KEY_LENGTH_SIZE && offset + keySize + CRC_SIZE <= logSize ? (int) keySize : -1);
+    }
+
+    /**
+     * @return true if the key in storedKeyBuffer matches the CRC32 stored after it.
+     */
+    private boolean storedKeyChecksumMatches(int keySize) {
+        int storedCrc = storedKeyBuffer.getInt(keySize);
+        storedKeyBuffer.position(0);
+        storedKeyBuffer.limit(keySize);
+        crc.reset();
+        crc.update(storedKeyBuffer);
+        return storedCrc == (int) crc.getValue();
+    }
+
+    /**
+     * Rehashes the slots of the current index straight into a new index
+     * file with twice the capacity, then replaces the current index with
+     * it.
+     */
+    private void grow() throws IOException {
+        Index newIndex = createIndex(index.capacity * 2);
+        for (long slot = 0; slot < index.capacity; slot++) {
+            long fingerprint = index.getSlotLong(slot, 0);
+            if (fingerprint != 0) {
+                newIndex.insert(fingerprint, index.getSlotLong(slot, 8));
+            }
+        }
+        replaceIndex(newIndex);
+    }
+
+    private List<File> listIndexFiles() {
+        List<File> indexFiles = new ArrayList<File>();
+        File[] files = indexDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (indexGeneration(file) >= 0) {
+                    indexFiles.add(file);
+                }
+            }
+        }
+        return indexFiles;
+    }
+
+    /**
+     * @return The generation of an index file of this store, or -1 if the file isn't one.
+     */
+    private long indexGeneration(File file) {
+        String name = file.getName();
+        if (!name.startsWith(indexPrefix) || name.length() == indexPrefix.length()) return -1;
+        for (int i = indexPrefix.length(); i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(indexPrefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Deletes the index files other than the current one.  A file that is
+     * still mapped might not be deletable until the mapping is garbage
+     * collected, so failures are ignored and retried on the next open.
+     */
+    private void deleteOldIndexes() {
+        for (File indexFile : listIndexFiles()) {
+            if (!indexFile.equals(index.file)) {
+                indexFile.delete();
+            }
+        }
+    }
+
+    private void writeHeaderCounts() {
+        index.header.putLong(COUNT_OFFSET, count);
+        index.header.putLong(LOG_LENGTH_OFFSET, logLength);
+    }
+
+    /**
+     * Encodes the object's key into keyBuffer, leaving room for its CRC32.
+     *
+     * @return The key size.
+     */
+    private int encodeKey(LogicalEqualsAndHashCodeInterface obj) {
+        int keySize = obj.logicalKeySize();
+        if (keyBuffer.capacity() < keySize + CRC_SIZE) {
+            keyBuffer = ByteBuffer.allocate(Math.max(keySize + CRC_SIZE, keyBuffer.capacity() * 2));
+        }
+        keyBuffer.clear();
+        obj.writeLogicalKey(keyBuffer);
+        return keySize;
+    }
+
+    /**
+     * Reads length bytes at offset in the log into storedKeyBuffer.
+     *
+     * @return false if the log ended first.
+     */
+    private boolean readStoredKey(long offset, int length) throws IOException {
+        if (storedKeyBuffer.capacity() < length) {
+            storedKeyBuffer = ByteBuffer.allocate(Math.max(length, storedKeyBuffer.capacity() * 2));
+        }
+        storedKeyBuffer.clear();
+        storedKeyBuffer.limit(length);
+        while (storedKeyBuffer.hasRemaining()) {
+            if (log.read(storedKeyBuffer, offset + storedKeyBuffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The slot holding the key that is in keyBuffer, or -(empty slot) - 1 if it isn't in the index.
+     */
+    private long findSlot(long fingerprint, int keySize) throws IOException {
+        long mask = index.capacity - 1;
+        long slot = fingerprint & mask;
+        long slotFingerprint;
+        while ((slotFingerprint = index.getSlotLong(slot, 0)) != 0) {
+            if (slotFingerprint == fingerprint && storedKeyEquals(index.getSlotLong(slot, 8), keySize)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private boolean storedKeyEquals(long offset, int keySize) throws IOException {
+        if (offset + keySize > logLength || !readStoredKey(offset, keySize)) {
+            return false;
+        }
+        storedKeyBuffer.position(0);
+        keyBuffer.position(0);
+        keyBuffer.limit(keySize);
+        return storedKeyBuffer.equals(keyBuffer);
+    }
+
+    /**
+     * @return true if the logical key of obj is in the store.
+     */
+    public synchronized boolean contains(LogicalEqualsAndHashCodeInterface obj) throws IOException {
+        ensureOpen();
+        int keySize = encodeKey(obj);
+        return findSlot(fingerprint(keyBuffer, keySize), keySize) >= 0;
+    }
+
+    /**
+     * Adds the logical key of obj if it isn't already in the store.
+     *
+     * @return true if the key was already in the store, false if it was added.
+     */
+    public synchronized boolean containsOrAdd(LogicalEqualsAndHashCodeInterface obj) throws IOException {
+        ensureOpen();
+        int keySize = encodeKey(obj);
+        long fingerprint = fingerprint(keyBuffer, keySize);
+        if (findSlot(fingerprint, keySize) >= 0) {
+            return true;
+        }
+
+        // append the key and its CRC32 to the log before adding to the index
+        keyBuffer.position(0);
+        keyBuffer.limit(keySize);
+        crc.reset();
+        crc.update(keyBuffer);
+        keyBuffer.limit(keySize + CRC_SIZE);
+        keyBuffer.putInt(keySize, (int) crc.getValue());
+        keyBuffer.position(0);
+        long offset = logLength;
+        while (keyBuffer.hasRemaining()) {
+            log.write(keyBuffer, offset + keyBuffer.position());
+        }
+        logLength += keySize + CRC_SIZE;
+
+        if (count + 1 > index.capacity * MAX_LOAD) {
+            grow();
+        }
+        index.insert(fingerprint, offset);
+        count++;
+        writeHeaderCounts();
+        return false;
+    }
+
+    /**
+     * @return The number of keys in the store.
+     */
+    public synchronized long size() {
+        return count;
+    }
+
+    /**
+     * Forces the keys added so far to disk.
+     */
+    public synchronized void sync() throws IOException {
+        ensureOpen();
+        log.force(false);
+        for (MappedByteBuffer segment : index.segments) {
+            segment.force();
+        }
+        index.header.force();
+    }
+
+    /**
+     * Forces the store to disk and marks the index as clean so that it
+     * doesn't need to be rebuilt when reopened.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!log.isOpen()) return;
+        try {
+            sync();
+            index.header.putInt(CLEAN_OFFSET, 1);
+            index.header.force();
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!log.isOpen()) throw new IOException("LogicalKeyDedupStore for " + logFile + " is closed");
+    }
+
+    private void closeQuietly() {
+        if (index != null) {
+            index.closeQuietly();
+        }
+        try {
+            log.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A 64-bit hash of the first length bytes of the buffer, never 0
+     * because 0 marks an empty index slot.
+     */
+    static long fingerprint(ByteBuffer buffer, int length) {
+        final long m = 0xc6a4a7935bd1e995L;
+        long h = 0x9e3779b97f4a7c15L ^ (length * m);
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long k = buffer.getLong(i) * m;
+            k ^= k >>> 47;
+            h = (h ^ (k * m)) * m;
+        }
+        for (; i < length; i++) {
+            h = (h ^ (buffer.get(i) & 0xffL)) * m;
+        }
+        // final avalanche
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (h != 0 ? h : 1);
+    }
+
+    /**
+     * One index file, mapped in segments.
+     */
+    private static final class Index {
+        private final File file;
+        private final FileChannel channel;
+        private MappedByteBuffer header;
+        private MappedByteBuffer[] segments;
+        private int segmentShift;
+        // 0 if the file isn't a valid index
+        private long capacity;
+
+        Index(File file) throws IOException {
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            try {
+                map();
+            } catch (IOException e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+
+        private void map() throws IOException {
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            capacity = header.getLong(CAPACITY_OFFSET);
+            if (capacity <= 0 || Long.bitCount(capacity) != 1 || channel.size() < HEADER_SIZE + capacity * SLOT_SIZE) {
+                capacity = 0;
+                segments = new MappedByteBuffer[0];
+                return;
+            }
+            segmentShift = Math.min(Long.numberOfTrailingZeros(capacity), MAX_SEGMENT_SHIFT);
+            long slotsPerSegment = 1L << segmentShift;
+            segments = new MappedByteBuffer[(int) (capacity / slotsPerSegment)];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * slotsPerSegment * SLOT_SIZE, slotsPerSegment * SLOT_SIZE);
+            }
+        }
+
+        long getSlotLong(long slot, int field) {
+            return segments[(int) (slot >>> segmentShift)].getLong((int) ((slot & ((1L << segmentShift) - 1)) * SLOT_SIZE) + field);
+        }
+
+        void putSlotLong(long slot, int field, long value) {
+            segments[(int) (slot >>> segmentShift)].putLong((int) ((slot & ((1L << segmentShift) - 1)) * SLOT_SIZE) + field, value);
+        }
+
+        void insert(long fingerprint, long offset) {
+            long mask = capacity - 1;
+            long slot = fingerprint & mask;
+            while (getSlotLong(slot, 0) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            // the offset is written first because a non-zero fingerprint marks the slot as used
+            putSlotLong(slot, 8, offset);
+            putSlotLong(slot, 0, fingerprint);
+        }
+
+        void closeQuietly() {
+            // Java 8 has no way to unmap a MappedByteBuffer.  The mappings
+            // are released when the buffers are garbage collected.
+            header = null;
+            segments = null;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
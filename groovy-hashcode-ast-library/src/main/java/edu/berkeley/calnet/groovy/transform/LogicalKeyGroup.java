@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import java.lang.annotation.*;
+
+/**
+ * Defines a named group of properties for the keyGroups parameter of a
+ * {@link LogicalEqualsAndHashCode} annotation.
+ *
+ * Usage:
+ *
+ * <code>
+ * @LogicalEqualsAndHashCode(keyGroups = [
+ *     @LogicalKeyGroup(name = "name", includes = ["firstName", "lastName"]),
+ *     @LogicalKeyGroup(name = "email", includes = "email")
+ * ])
+ * class Person {
+ *     ...
+ * }
+ * </code>
+ *
+ * For each group, this adds hashCode&lt;Name&gt;() and
+ * equals&lt;Name&gt;(Object) methods and a static
+ * logicalHashCodeProperties&lt;Name&gt; list.  For example,
+ * hashCodeName(), equalsName(Object) and logicalHashCodePropertiesName
+ * for the "name" group above.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface LogicalKeyGroup {
+    /**
+     * name of the group, which is capitalized and appended to the generated method and field names
+     */
+    public abstract String name();
+
+    /**
+     * properties to include in the group's equals() and hashCode() calculations
+     */
+    public abstract String[] includes();
+}
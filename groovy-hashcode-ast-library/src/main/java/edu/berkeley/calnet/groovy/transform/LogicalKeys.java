@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encodes the logical key of a {@link LogicalEqualsAndHashCodeInterface}
+ * object into a canonical binary form, for use as a key in off-heap or
+ * memory-mapped storage.
+ *
+ * A key is a 4-byte length, which is the number of bytes that follow it,
+ * and then each logical property value in the order of
+ * getLogicalHashCodeProperties().  Each value is a 1-byte type tag
+ * followed by the value's bytes.  All numbers are big-endian, regardless
+ * of the byte order of the buffer.
+ *
+ * Values are encoded as:
+ * <ul>
+ * <li>null: the tag only</li>
+ * <li>Boolean, Byte, Short, Character, Integer, Long, Float, Double: the
+ * primitive value (Float and Double as their canonical bits)</li>
+ * <li>CharSequence: a 4-byte length and the UTF-8 bytes</li>
+ * <li>Enum: the name, encoded as a CharSequence</li>
+ * <li>Date: the epoch milliseconds</li>
+ * <li>Timestamp: the epoch milliseconds and the nanoseconds</li>
+ * <li>UUID: the most and least significant bits</li>
+ * <li>BigInteger: a 4-byte length and the two's-complement bytes</li>
+ * <li>BigDecimal: the scale and the unscaled value as a BigInteger</li>
+ * <li>LogicalEqualsAndHashCodeInterface: a 4-byte property count and the
+ * object's logical property values</li>
+ * <li>List: a 4-byte size and the elements</li>
+ * <li>A reference back to an object or list that is already being
+ * encoded: the tag only</li>
+ * </ul>
+ *
+ * Values of any other type throw an IllegalArgumentException, because
+ * nothing but their hashCode() could be encoded and that would make
+ * distinct keys equal.  Only BigInteger, BigDecimal, nested object and
+ * list values allocate during encoding.
+ */
+public final class LogicalKeys {
+    /**
+     * The size of the length that starts each key.
+     */
+    public static final int KEY_LENGTH_SIZE = 4;
+
+    private static final byte NULL_TAG = 0;
+    private static final byte BOOLEAN_TAG = 1;
+    private static final byte BYTE_TAG = 2;
+    private static final byte SHORT_TAG = 3;
+    private static final byte CHARACTER_TAG = 4;
+    private static final byte INTEGER_TAG = 5;
+    private static final byte LONG_TAG = 6;
+    private static final byte FLOAT_TAG = 7;
+    private static final byte DOUBLE_TAG = 8;
+    private static final byte STRING_TAG = 9;
+    private static final byte ENUM_TAG = 10;
+    private static final byte DATE_TAG = 11;
+    private static final byte UUID_TAG = 12;
+    private static final byte BIG_INTEGER_TAG = 13;
+    private static final byte BIG_DECIMAL_TAG = 14;
+    private static final byte NESTED_TAG = 15;
+    private static final byte LIST_TAG = 16;
+    private static final byte CYCLE_TAG = 17;
+    private static final byte TIMESTAMP_TAG = 18;
+
+    private LogicalKeys() {
+    }
+
+    /**
+     * @return The number of bytes writeValue() writes for the value.
+     * @throws IllegalArgumentException If the value can't be encoded.
+     */
+    public static int valueSize(Object value) {
+        return valueSize(null, value);
+    }
+
+    /**
+     * @param owner The object the value is a property value of, which is encoded as a circular reference if the value leads back to it.
+     * @return The number of bytes writeValue() writes for the value.
+     * @throws IllegalArgumentException If the value can't be encoded.
+     */
+    public static int valueSize(Object owner, Object value) {
+        return valueSize(value, owner, null);
+    }
+
+    private static int valueSize(Object value, Object owner, Path path) {
+        if (value == null) return 1;
+        if (value instanceof CharSequence) return 1 + 4 + utf8Length((CharSequence) value);
+        if (value instanceof Integer) return 1 + 4;
+        if (value instanceof Long) return 1 + 8;
+        if (value instanceof Boolean || value instanceof Byte) return 1 + 1;
+        if (value instanceof Short || value instanceof Character) return 1 + 2;
+        if (value instanceof Float) return 1 + 4;
+        if (value instanceof Timestamp) return 1 + 8 + 4;
+        if (value instanceof Double || value instanceof Date) return 1 + 8;
+        if (value instanceof Enum) return 1 + 4 + utf8Length(((Enum) value).name());
+        if (value instanceof UUID) return 1 + 16;
+        if (value instanceof BigInteger) return 1 + 4 + ((BigInteger) value).bitLength() / 8 + 1;
+        if (value instanceof BigDecimal) return 1 + 4 + 4 + ((BigDecimal) value).unscaledValue().bitLength() / 8 + 1;
+        if (value instanceof LogicalEqualsAndHashCodeInterface || value instanceof List) {
+            if (path == null) {
+                path = new Path(owner);
+            }
+            if (path.contains(value)) return 1;
+            path.push(value);
+            int size = 1 + 4;
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    size += valueSize(element, null, path);
+                }
+            } else {
+                LogicalEqualsAndHashCodeInterface obj = (LogicalEqualsAndHashCodeInterface) value;
+                int count = obj.getLogicalPropertyCount();
+                for (int i = 0; i < count; i++) {
+                    size += valueSize(obj.getLogicalPropertyValue(i), null, path);
+                }
+            }
+            path.pop();
+            return size;
+        }
+        throw unsupported(value);
+    }
+
+    /**
+     * Writes the value at the buffer's position and advances the position.
+     *
+     * @throws BufferOverflowException If the buffer doesn't have valueSize(value) bytes remaining.
+     * @throws IllegalArgumentException If the value can't be encoded.
+     */
+    public static void writeValue(ByteBuffer buffer, Object value) {
+        writeValue(buffer, null, value);
+    }
+
+    /**
+     * Writes the value at the buffer's position and advances the position.
+     * Called by the generated writeLogicalKey() for each property value.
+     *
+     * @param owner The object the value is a property value of, which is encoded as a circular reference if the value leads back to it.
+     * @throws BufferOverflowException If the buffer doesn't have valueSize(owner, value) bytes remaining.
+     * @throws IllegalArgumentException If the value can't be encoded.
+     */
+    public static void writeValue(ByteBuffer buffer, Object owner, Object value) {
+        int size = valueSize(owner, value);
+        if (buffer.remaining() < size) throw new BufferOverflowException();
+        buffer.position(encodeValue(buffer, buffer.position(), value, false, owner, null));
+    }
+
+    /**
+     * Writes the length at the start of a key at the buffer's position and
+     * advances the position.  Called by the generated writeLogicalKey()
+     * before it writes the property values.
+     *
+     * @param keySize The full key size, as returned by logicalKeySize().
+     * @throws BufferOverflowException If the buffer doesn't have keySize bytes remaining.
+     */
+    public static void writeKeyLength(ByteBuffer buffer, int keySize) {
+        if (buffer.remaining() < keySize) throw new BufferOverflowException();
+        buffer.position(encodeInt(buffer, buffer.position(), keySize - KEY_LENGTH_SIZE, false));
+    }
+
+    /**
+     * Compares the key stored in the buffer at offset with the logical key
+     * of obj, without changing the buffer's position.  Only allocates when
+     * obj has nested objects or lists.
+     *
+     * @return true if the key at offset is the same as the one obj.writeLogicalKey() would write.
+     */
+    public static boolean keyEquals(ByteBuffer buffer, int offset, LogicalEqualsAndHashCodeInterface obj) {
+        int keySize = obj.logicalKeySize();
+        if (offset < 0 || offset + keySize > buffer.limit()) return false;
+        int next = encodeInt(buffer, offset, keySize - KEY_LENGTH_SIZE, true);
+        int count = obj.getLogicalPropertyCount();
+        for (int i = 0; i < count && next != -1; i++) {
+            next = encodeValue(buffer, next, obj.getLogicalPropertyValue(i), true, obj, null);
+        }
+        return next == offset + keySize;
+    }
+
+    /**
+     * @return The full size of the key stored in the buffer at offset, including its length.
+     */
+    public static int storedKeySize(ByteBuffer buffer, int offset) {
+        return KEY_LENGTH_SIZE + ((buffer.get(offset) & 0xff) << 24
+                | (buffer.get(offset + 1) & 0xff) << 16
+                | (buffer.get(offset + 2) & 0xff) << 8
+                | (buffer.get(offset + 3) & 0xff));
+    }
+
+    /**
+     * Writes the value at offset, or when compare is true, compares the
+     * bytes at offset with what would be written.
+     *
+     * @return The offset after the value, or -1 if compare is true and the bytes are different.
+     */
+    private static int encodeValue(ByteBuffer buffer, int offset, Object value, boolean compare, Object owner, Path path) {
+        if (value == null) {
+            return encodeByte(buffer, offset, NULL_TAG, compare);
+        } else if (value instanceof CharSequence) {
+            return encodeString(buffer, encodeByte(buffer, offset, STRING_TAG, compare), (CharSequence) value, compare);
+        } else if (value instanceof Integer) {
+            return encodeInt(buffer, encodeByte(buffer, offset, INTEGER_TAG, compare), (Integer) value, compare);
+        } else if (value instanceof Long) {
+            return encodeLong(buffer, encodeByte(buffer, offset, LONG_TAG, compare), (Long) value, compare);
+        } else if (value instanceof Boolean) {
+            return encodeByte(buffer, encodeByte(buffer, offset, BOOLEAN_TAG, compare), ((Boolean) value ? 1 : 0), compare);
+        } else if (value instanceof Byte) {
+            return encodeByte(buffer, encodeByte(buffer, offset, BYTE_TAG, compare), (Byte) value, compare);
+        } else if (value instanceof Short) {
+            return encodeShort(buffer, encodeByte(buffer, offset, SHORT_TAG, compare), (Short) value, compare);
+        } else if (value instanceof Character) {
+            return encodeShort(buffer, encodeByte(buffer, offset, CHARACTER_TAG, compare), (Character) value, compare);
+        } else if (value instanceof Float) {
+            return encodeInt(buffer, encodeByte(buffer, offset, FLOAT_TAG, compare), Float.floatToIntBits((Float) value), compare);
+        } else if (value instanceof Double) {
+            return encodeLong(buffer, encodeByte(buffer, offset, DOUBLE_TAG, compare), Double.doubleToLongBits((Double) value), compare);
+        } else if (value instanceof Enum) {
+            return encodeString(buffer, encodeByte(buffer, offset, ENUM_TAG, compare), ((Enum) value).name(), compare);
+        } else if (value instanceof Timestamp) {
+            offset = encodeLong(buffer, encodeByte(buffer, offset, TIMESTAMP_TAG, compare), ((Timestamp) value).getTime(), compare);
+            return encodeInt(buffer, offset, ((Timestamp) value).getNanos(), compare);
+        } else if (value instanceof Date) {
+            return encodeLong(buffer, encodeByte(buffer, offset, DATE_TAG, compare), ((Date) value).getTime(), compare);
+        } else if (value instanceof UUID) {
+            offset = encodeLong(buffer, encodeByte(buffer, offset, UUID_TAG, compare), ((UUID) value).getMostSignificantBits(), compare);
+            return encodeLong(buffer, offset, ((UUID) value).getLeastSignificantBits(), compare);
+        } else if (value instanceof BigInteger) {
+            return encodeBytes(buffer, encodeByte(buffer, offset, BIG_INTEGER_TAG, compare), ((BigInteger) value).toByteArray(), compare);
+        } else if (value instanceof BigDecimal) {
+            offset = encodeInt(buffer, encodeByte(buffer, offset, BIG_DECIMAL_TAG, compare), ((BigDecimal) value).scale(), compare);
+            return encodeBytes(buffer, offset, ((BigDecimal) value).unscaledValue().toByteArray(), compare);
+        } else if (value instanceof LogicalEqualsAndHashCodeInterface || value instanceof List) {
+            if (path == null) {
+                path = new Path(owner);
+            }
+            if (path.contains(value)) return encodeByte(buffer, offset, CYCLE_TAG, compare);
+            path.push(value);
+            if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                offset = encodeInt(buffer, encodeByte(buffer, offset, LIST_TAG, compare), list.size(), compare);
+                for (Object element : list) {
+                    if (offset == -1) break;
+                    offset = encodeValue(buffer, offset, element, compare, null, path);
+                }
+            } else {
+                LogicalEqualsAndHashCodeInterface obj = (LogicalEqualsAndHashCodeInterface) value;
+                int count = obj.getLogicalPropertyCount();
+                offset = encodeInt(buffer, encodeByte(buffer, offset, NESTED_TAG, compare), count, compare);
+                for (int i = 0; i < count && offset != -1; i++) {
+                    offset = encodeValue(buffer, offset, obj.getLogicalPropertyValue(i), compare, null, path);
+                }
+            }
+            path.pop();
+            return offset;
+        } else {
+            throw unsupported(value);
+        }
+    }
+
+    private static IllegalArgumentException unsupported(Object value) {
+        return new IllegalArgumentException("Values of type " + value.getClass().getName() + " can't be encoded in a logical key");
+    }
+
+    private static int encodeByte(ByteBuffer buffer, int offset, int value, boolean compare) {
+        if (offset < 0) return -1;
+        if (compare) {
+            return (offset < buffer.limit() && buffer.get(offset) == (byte) value ? offset + 1 : -1);
+        }
+        buffer.put(offset, (byte) value);
+        return offset + 1;
+    }
+
+    private static int encodeShort(ByteBuffer buffer, int offset, int value, boolean compare) {
+        offset = encodeByte(buffer, offset, value >>> 8, compare);
+        return encodeByte(buffer, offset, value, compare);
+    }
+
+    private static int encodeInt(ByteBuffer buffer, int offset, int value, boolean compare) {
+        offset = encodeShort(buffer, offset, value >>> 16, compare);
+        return encodeShort(buffer, offset, value, compare);
+    }
+
+    private static int encodeLong(ByteBuffer buffer, int offset, long value, boolean compare) {
+        offset = encodeInt(buffer, offset, (int) (value >>> 32), compare);
+        return encodeInt(buffer, offset, (int) value, compare);
+    }
+
+    private static int encodeBytes(ByteBuffer buffer, int offset, byte[] bytes, boolean compare) {
+        offset = encodeInt(buffer, offset, bytes.length, compare);
+        for (int i = 0; i < bytes.length && offset != -1; i++) {
+            offset = encodeByte(buffer, offset, bytes[i], compare);
+        }
+        return offset;
+    }
+
+    private static int encodeString(ByteBuffer buffer, int offset, CharSequence str, boolean compare) {
+        offset = encodeInt(buffer, offset, utf8Length(str), compare);
+        int length = str.length();
+        for (int i = 0; i < length && offset != -1; i++) {
+            int c = str.charAt(i);
+            if (c < 0x80) {
+                offset = encodeByte(buffer, offset, c, compare);
+            } else if (c < 0x800) {
+                offset = encodeByte(buffer, offset, 0xc0 | (c >> 6), compare);
+                offset = encodeByte(buffer, offset, 0x80 | (c & 0x3f), compare);
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint((char) c, str.charAt(++i));
+                offset = encodeByte(buffer, offset, 0xf0 | (codePoint >> 18), compare);
+                offset = encodeByte(buffer, offset, 0x80 | ((codePoint >> 12) & 0x3f), compare);
+                offset = encodeByte(buffer, offset, 0x80 | ((codePoint >> 6) & 0x3f), compare);
+                offset = encodeByte(buffer, offset, 0x80 | (codePoint & 0x3f), compare);
+            } else {
+                // includes unpaired surrogates
+                offset = encodeByte(buffer, offset, 0xe0 | (c >> 12), compare);
+                offset = encodeByte(buffer, offset, 0x80 | ((c >> 6) & 0x3f), compare);
+                offset = encodeByte(buffer, offset, 0x80 | (c & 0x3f), compare);
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * The objects and lists that are being encoded, to detect circular
+     * references.  Compared by identity.
+     */
+    private static final class Path {
+        private Object[] items = new Object[8];
+        private int depth;
+
+        Path(Object owner) {
+            if (owner != null) {
+                push(owner);
+            }
+        }
+
+        boolean contains(Object value) {
+            for (int i = 0; i < depth; i++) {
+                if (items[i] == value) return true;
+            }
+            return false;
+        }
+
+        void push(Object value) {
+            if (depth == items.length) {
+                items = Arrays.copyOf(items, depth * 2);
+            }
+            items[depth++] = value;
+        }
+
+        void pop() {
+            items[--depth] = null;
+        }
+    }
+
+    private static int utf8Length(CharSequence str) {
+        int length = str.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                utf8Length += 1;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        return utf8Length;
+    }
+}
@@ -331,6 +331,31 @@ class HashCodeSpec extends Specification {
         )
     }
 
+    @LogicalEqualsAndHashCode(excludes = "hello3")
+    static class TestHierarchyParent {
+        String hello1
+        String hello2
+        String hello3
+    }
+
+    @LogicalEqualsAndHashCode(includes = ["hello4", "hello1"])
+    static class TestHierarchyChild extends TestHierarchyParent {
+        String hello4
+        String hello5
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestHierarchyGrandchild extends TestHierarchyChild {
+        String hello6
+    }
+
+    void "test properties of a class hierarchy with includes and excludes at each level"() {
+        expect:
+        TestHierarchyParent.logicalHashCodeProperties == ["hello1", "hello2"]
+        TestHierarchyChild.logicalHashCodeProperties == ["hello4", "hello1"]
+        TestHierarchyGrandchild.logicalHashCodeProperties == ["hello6", "hello4", "hello5", "hello1", "hello2", "hello3"]
+    }
+
     @LogicalEqualsAndHashCode(changeCallbackClass = TestHashCodeChangeCallback)
     static class TestHashWithCallback {
         String hello1
@@ -369,4 +394,124 @@ class HashCodeSpec extends Specification {
         1 * mockCallback.hashCodeChange(obj, expectedBeforeHashCode, expectedAfterHashCode)
         0 * mockCallback.hashCodeChange(_, _, _)
     }
+
+    @LogicalEqualsAndHashCode(immutable = true)
+    static class TestDeclaredImmutable {
+        String hello1
+        String hello2
+    }
+
+    void "test hash code is cached when declared immutable"() {
+        given:
+        TestDeclaredImmutable obj = new TestDeclaredImmutable(hello1: "world1", hello2: "world2")
+        int expectedHashCode = (
+                (HashCodeSalts.salts[0] * "world1".hashCode()) ^
+                        (HashCodeSalts.salts[1] * "world2".hashCode())
+        )
+
+        when:
+        int hashCodeBefore = obj.hashCode()
+        // breaks the immutable declaration to show the cached value is used
+        obj.hello1 = "changed"
+        int hashCodeAfter = obj.hashCode()
+
+        then:
+        hashCodeBefore == expectedHashCode
+        hashCodeAfter == expectedHashCode
+        obj.equals(new TestDeclaredImmutable(hello1: "world1", hello2: "world2"))
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestSharedValue {
+        String hello1
+    }
+
+    @LogicalEqualsAndHashCode(immutable = true)
+    static class TestImmutableHolder {
+        TestSharedValue shared
+        String hello2
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestSharingParent {
+        TestSharedValue shared
+        TestImmutableHolder holder
+    }
+
+    void "test an immutable value's cached hash code doesn't depend on who hashed it first"() {
+        given:
+        TestSharedValue shared = new TestSharedValue(hello1: "world1")
+        TestImmutableHolder holder = new TestImmutableHolder(shared: shared, hello2: "world2")
+
+        when:
+        // the parent visits shared before holder
+        new TestSharingParent(shared: shared, holder: holder).hashCode()
+
+        then:
+        holder.hashCode() == new TestImmutableHolder(shared: shared, hello2: "world2").hashCode()
+        holder.equals(new TestImmutableHolder(shared: shared, hello2: "world2"))
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestFinalProperties {
+        final String hello1
+        final int hello2
+
+        TestFinalProperties(String hello1, int hello2) {
+            this.hello1 = hello1
+            this.hello2 = hello2
+        }
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestFinalMutableProperty {
+        final String hello1
+        final Date hello2
+    }
+
+    void "test immutable detection"() {
+        given:
+        TestFinalProperties obj = new TestFinalProperties("world1", 2)
+
+        expect:
+        obj.hashCode() == (
+                (HashCodeSalts.salts[0] * "world1".hashCode()) ^
+                        (HashCodeSalts.salts[1] * 2.hashCode())
+        )
+        TestFinalProperties.declaredFields*.name.contains("cachedHashCode")
+        TestDeclaredImmutable.declaredFields*.name.contains("cachedHashCode")
+        // Date values can change
+        !TestFinalMutableProperty.declaredFields*.name.contains("cachedHashCode")
+        !TestHash.declaredFields*.name.contains("cachedHashCode")
+    }
+
+    void "test compile-time report"() {
+        given:
+        File reportFile = File.createTempFile("hashcode-report", ".txt")
+        System.setProperty(LogicalEqualsAndHashCodeASTTransformation.REPORT_PROPERTY, reportFile.path)
+
+        when:
+        new GroovyClassLoader().parseClass('''
+            @edu.berkeley.calnet.groovy.transform.LogicalEqualsAndHashCode
+            class TestReportParent {
+                String hello1
+            }
+
+            @edu.berkeley.calnet.groovy.transform.LogicalEqualsAndHashCode
+            class TestReportChild extends TestReportParent {
+                String hello2
+            }
+        ''')
+        List<String> lines = reportFile.readLines("UTF-8")
+
+        then:
+        lines.size() == 2
+        lines[0].startsWith("@LogicalEqualsAndHashCode: transformed TestReportParent in ")
+        lines[1].startsWith("@LogicalEqualsAndHashCode: transformed TestReportChild in ")
+        lines[1].endsWith(" for 2 classes)")
+
+        cleanup:
+        System.clearProperty(LogicalEqualsAndHashCodeASTTransformation.REPORT_PROPERTY)
+        reportFile.delete()
+    }
 }
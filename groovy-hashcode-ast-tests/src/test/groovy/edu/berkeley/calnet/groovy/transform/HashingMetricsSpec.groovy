@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform
+
+import spock.lang.Specification
+
+import javax.management.MBeanServerFactory
+import javax.management.ObjectName
+
+class HashingMetricsSpec extends Specification {
+
+    @LogicalEqualsAndHashCode(metrics = true, changeCallbackClass = TestHashCodeChangeCallback)
+    static class TestMetricsNode {
+        String name
+        TestMetricsNode child
+        TestMetricsNode other
+    }
+
+    @LogicalEqualsAndHashCode(metrics = true)
+    static class TestMetricsImmutable {
+        final String name
+
+        TestMetricsImmutable(String name) {
+            this.name = name
+        }
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestNoMetrics {
+        String name
+    }
+
+    JmxHashingMetrics metrics = new JmxHashingMetrics(null)
+
+    void setup() {
+        HashingMetricsRegistry.setMetrics(metrics)
+    }
+
+    void cleanup() {
+        HashingMetricsRegistry.setMetrics(null)
+    }
+
+    void "test hashCode metrics"() {
+        given:
+        TestMetricsNode root = new TestMetricsNode(name: "root", child: new TestMetricsNode(name: "child", child: new TestMetricsNode(name: "grandchild")))
+        root.other = root
+
+        when:
+        root.hashCode()
+        JmxHashingMetrics.ClassMetrics classMetrics = metrics.getClassMetrics(TestMetricsNode)
+
+        then:
+        classMetrics.hashCodeCalls == 1
+        classMetrics.hashCodeLatencyHistogram.sum() == 1
+        classMetrics.maxDepth == 3
+        classMetrics.nodesVisited == 3
+        // root.other
+        classMetrics.cycleHits == 1
+    }
+
+    void "test equals metrics"() {
+        given:
+        TestMetricsNode node = new TestMetricsNode(name: "node")
+
+        when:
+        boolean result = node.equals(new TestMetricsNode(name: "node"))
+        JmxHashingMetrics.ClassMetrics classMetrics = metrics.getClassMetrics(TestMetricsNode)
+
+        then:
+        result
+        classMetrics.equalsCalls == 1
+        classMetrics.equalsLatencyHistogram.sum() == 1
+        classMetrics.hashCodeCalls == 2
+    }
+
+    void "test change callback metrics"() {
+        given:
+        TestMetricsNode node = new TestMetricsNode(name: "before")
+        node.hashCode()
+
+        when:
+        node.name = "after"
+        node.hashCode()
+
+        then:
+        metrics.getClassMetrics(TestMetricsNode).changeCallbackFirings == 1
+    }
+
+    void "test cached hash code metrics"() {
+        given:
+        TestMetricsImmutable obj = new TestMetricsImmutable("name")
+
+        when:
+        obj.hashCode()
+        obj.hashCode()
+        JmxHashingMetrics.ClassMetrics classMetrics = metrics.getClassMetrics(TestMetricsImmutable)
+
+        then:
+        classMetrics.hashCodeCalls == 2
+        classMetrics.nodesVisited == 1
+    }
+
+    void "test no metrics without the metrics parameter"() {
+        when:
+        new TestNoMetrics(name: "name").hashCode()
+
+        then:
+        metrics.getClassMetrics(TestNoMetrics).hashCodeCalls == 0
+    }
+
+    void "test hash code is the same with metrics"() {
+        expect:
+        new TestMetricsImmutable("name").hashCode() == new TestNoMetrics(name: "name").hashCode()
+    }
+
+    void "test MBean registration"() {
+        given:
+        def mBeanServer = MBeanServerFactory.newMBeanServer()
+        JmxHashingMetrics jmxMetrics = new JmxHashingMetrics(mBeanServer)
+        HashingMetricsRegistry.setMetrics(jmxMetrics)
+        ObjectName objectName = new ObjectName(JmxHashingMetrics.OBJECT_NAME_PREFIX + ObjectName.quote(TestMetricsNode.name))
+
+        when:
+        new TestMetricsNode(name: "node").hashCode()
+
+        then:
+        mBeanServer.getAttribute(objectName, "HashCodeCalls") == 1L
+
+        when:
+        mBeanServer.invoke(objectName, "reset", null, null)
+
+        then:
+        mBeanServer.getAttribute(objectName, "HashCodeCalls") == 0L
+
+        when:
+        jmxMetrics.unregister()
+
+        then:
+        !mBeanServer.isRegistered(objectName)
+    }
+
+    void "test a reloaded class reports to the same MBean"() {
+        given:
+        def mBeanServer = MBeanServerFactory.newMBeanServer()
+        HashingMetricsRegistry.setMetrics(new JmxHashingMetrics(mBeanServer))
+        String source = '''
+            @edu.berkeley.calnet.groovy.transform.LogicalEqualsAndHashCode(metrics = true)
+            class TestReloadedNode {
+                String name
+            }
+        '''
+        Class<?> loaded = new GroovyClassLoader().parseClass(source)
+        Class<?> reloaded = new GroovyClassLoader().parseClass(source)
+        ObjectName objectName = new ObjectName(JmxHashingMetrics.OBJECT_NAME_PREFIX + ObjectName.quote("TestReloadedNode"))
+
+        when:
+        loaded.newInstance(name: "node").hashCode()
+        reloaded.newInstance(name: "node").hashCode()
+
+        then:
+        loaded != reloaded
+        mBeanServer.getAttribute(objectName, "HashCodeCalls") == 2L
+    }
+
+    void "test an MBean left by another instance is replaced"() {
+        given:
+        def mBeanServer = MBeanServerFactory.newMBeanServer()
+        JmxHashingMetrics oldMetrics = new JmxHashingMetrics(mBeanServer)
+        oldMetrics.getClassMetrics(TestMetricsNode)
+        HashingMetricsRegistry.setMetrics(new JmxHashingMetrics(mBeanServer))
+        ObjectName objectName = new ObjectName(JmxHashingMetrics.OBJECT_NAME_PREFIX + ObjectName.quote(TestMetricsNode.name))
+
+        when:
+        new TestMetricsNode(name: "node").hashCode()
+
+        then:
+        mBeanServer.getAttribute(objectName, "HashCodeCalls") == 1L
+        oldMetrics.getClassMetrics(TestMetricsNode).hashCodeCalls == 0
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform
+
+import org.codehaus.groovy.control.MultipleCompilationErrorsException
+import spock.lang.Specification
+
+class KeyGroupSpec extends Specification {
+
+    @LogicalEqualsAndHashCode(keyGroups = [
+            @LogicalKeyGroup(name = "name", includes = ["firstName", "lastName"]),
+            @LogicalKeyGroup(name = "email", includes = "email"),
+            @LogicalKeyGroup(name = "age", includes = "age")
+    ])
+    static class TestPerson {
+        String firstName
+        String lastName
+        String email
+        int age
+    }
+
+    void "test key group property lists"() {
+        expect:
+        TestPerson.logicalHashCodePropertiesName == ["firstName", "lastName"]
+        TestPerson.logicalHashCodePropertiesEmail == ["email"]
+        TestPerson.logicalHashCodePropertiesAge == ["age"]
+        new TestPerson().logicalHashCodeProperties == ["firstName", "lastName", "email", "age"]
+    }
+
+    void "test key group hash codes"() {
+        given:
+        TestPerson person1 = new TestPerson(firstName: "John", lastName: "Smith", email: "john@example.com", age: 30)
+        TestPerson person2 = new TestPerson(firstName: "John", lastName: "Smith", email: "jsmith@example.com", age: 31)
+
+        expect:
+        person1.hashCodeName() == (
+                (HashCodeSalts.salts[0] * "John".hashCode()) ^
+                        (HashCodeSalts.salts[1] * "Smith".hashCode())
+        )
+        person1.hashCodeName() == person2.hashCodeName()
+        person1.hashCodeEmail() == HashCodeSalts.salts[0] * "john@example.com".hashCode()
+        person1.hashCodeEmail() != person2.hashCodeEmail()
+        person1.hashCodeAge() == HashCodeSalts.salts[0] * 30
+        // all null
+        new TestPerson().hashCodeName() == TestPerson.name.hashCode()
+    }
+
+    void "test key group equals"() {
+        given:
+        TestPerson person1 = new TestPerson(firstName: "John", lastName: "Smith", email: "john@example.com", age: 30)
+        TestPerson person2 = new TestPerson(firstName: "John", lastName: "Smith", email: "jsmith@example.com", age: 31)
+
+        expect:
+        person1.equalsName(person2)
+        !person1.equalsEmail(person2)
+        !person1.equalsAge(person2)
+        person1.equalsAge(new TestPerson(age: 30))
+        !person1.equalsName(null)
+        !person1.equalsName("John Smith")
+        !person1.equals(person2)
+    }
+
+    void "test key group names that differ only in the first letter's case"() {
+        when:
+        new GroovyClassLoader().parseClass('''
+            import edu.berkeley.calnet.groovy.transform.*
+            @LogicalEqualsAndHashCode(keyGroups = [
+                    @LogicalKeyGroup(name = "name", includes = "firstName"),
+                    @LogicalKeyGroup(name = "Name", includes = "lastName")
+            ])
+            class TestDuplicateGroups {
+                String firstName
+                String lastName
+            }
+        ''')
+
+        then:
+        MultipleCompilationErrorsException e = thrown()
+        e.message.contains("key group name 'Name' is used more than once")
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform
+
+import spock.lang.Specification
+
+class LogicalDiffSpec extends Specification {
+
+    @LogicalEqualsAndHashCode(excludes = "id")
+    static class TestEntity {
+        Long id
+        String name
+        int count
+        TestEntity self
+        String description
+
+        TestEntity() {
+            this.self = this
+        }
+    }
+
+    static enum TestColor {
+        RED, GREEN
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestEnumEntity {
+        TestColor color
+        Object value
+    }
+
+    void "test logicalDiff"() {
+        given:
+        TestEntity entity1 = new TestEntity(id: 1, name: "hello", count: 2, description: "world")
+        TestEntity entity2 = new TestEntity(id: 2, name: "hello", count: 3, description: null)
+
+        expect:
+        entity1.logicalHashCodeProperties == ["name", "count", "self", "description"]
+        // id is excluded and name is the same
+        entity1.logicalDiff(entity2) == 0b1110L
+        entity1.logicalDiff(new TestEntity(name: "hello", count: 2, description: "world")) == 0L
+        entity1.logicalDiff(entity1) == 0L
+        // all property bits set
+        entity1.logicalDiff(null) == 0b1111L
+        entity1.logicalDiff("hello") == 0b1111L
+    }
+
+    void "test logicalDiff through the interface"() {
+        given:
+        LogicalEqualsAndHashCodeInterface obj1 = (LogicalEqualsAndHashCodeInterface) new TestHash(hello1: "world1", hello2: "world2")
+        LogicalEqualsAndHashCodeInterface obj2 = (LogicalEqualsAndHashCodeInterface) new TestHash(hello1: "world1", hello2: "changed")
+
+        expect:
+        obj1.logicalDiff(obj2) == 0b10L
+    }
+
+    void "test logicalPropertyHashes"() {
+        given:
+        TestEntity entity = new TestEntity(id: 1, name: "hello", count: 2, description: null)
+        int[] out = new int[entity.logicalHashCodeProperties.size()]
+
+        when:
+        entity.logicalPropertyHashes(out)
+
+        then:
+        // self is a circular reference and description is null
+        out as List == ["hello".hashCode(), 2, 0, 0]
+    }
+
+    void "test logicalPropertyHashes hashes enums by name"() {
+        given:
+        int[] out = new int[2]
+
+        when:
+        new TestEnumEntity(color: TestColor.RED, value: TestColor.GREEN).logicalPropertyHashes(out)
+
+        then:
+        // Enum.hashCode() is different on every JVM run
+        out as List == ["RED".hashCode(), "GREEN".hashCode()]
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestEnumHolder {
+        TestEnumEntity entity
+    }
+
+    void "test logicalPropertyHashes hashes enums in annotated values by name"() {
+        given:
+        TestEnumEntity entity = new TestEnumEntity(color: TestColor.RED, value: TestColor.GREEN)
+        int[] out = new int[1]
+
+        when:
+        new TestEnumHolder(entity: entity).logicalPropertyHashes(out)
+
+        then:
+        out[0] == ((HashCodeSalts.salts[0] * "RED".hashCode()) ^ (HashCodeSalts.salts[1] * "GREEN".hashCode()))
+        out[0] == entity.hashCode()
+        TestEnumEntity.logicalHashCodeOf([color: TestColor.RED, value: TestColor.GREEN]) == entity.hashCode()
+    }
+
+    void "test logicalDiff with more than 64 properties"() {
+        given:
+        Class wideClass = new GroovyClassLoader(getClass().classLoader).parseClass(
+                "@edu.berkeley.calnet.groovy.transform.LogicalEqualsAndHashCode class TestWideEntity { " +
+                        (0..<70).collect { "String p$it" }.join("; ") +
+                        " }"
+        )
+        def entity1 = wideClass.newInstance()
+        def entity2 = wideClass.newInstance(p3: "changed", p64: "changed", p69: "changed")
+        long[] out = new long[2]
+
+        when:
+        entity1.logicalDiff(entity2, out)
+
+        then:
+        out as List == [1L << 3, (1L << 0) | (1L << 5)]
+
+        when:
+        entity1.logicalDiff(null, out)
+
+        then:
+        out as List == [-1L, 0b111111L]
+
+        when:
+        entity1.logicalDiff(entity2)
+
+        then:
+        thrown UnsupportedOperationException
+    }
+
+    void "test logicalDiff into an array"() {
+        given:
+        TestEntity entity1 = new TestEntity(id: 1, name: "hello", count: 2, description: "world")
+        long[] out = [-1L] as long[]
+
+        when:
+        entity1.logicalDiff(new TestEntity(id: 2, name: "hello", count: 3, description: "world"), out)
+
+        then:
+        out[0] == 0b0110L
+        out[0] == entity1.logicalDiff(new TestEntity(id: 2, name: "hello", count: 3, description: "world"))
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform
+
+import groovy.transform.CompileStatic
+import spock.lang.Specification
+
+class LogicalHashCodeOfSpec extends Specification {
+
+    @LogicalEqualsAndHashCode(excludes = "id")
+    static class TestRow {
+        Long id
+        String name
+        int count
+        Long amount
+        boolean flag
+        Object nested1
+        Object nested2
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestNested {
+        String value
+    }
+
+    void "test logicalHashCodeOf matches the instance hash code"() {
+        given:
+        TestRow instance = new TestRow(row)
+        Object[] values = instance.logicalHashCodeProperties.collect { row[it] } as Object[]
+
+        expect:
+        TestRow.logicalHashCodeOf(row) == instance.hashCode()
+        TestRow.logicalHashCodeOf(values) == instance.hashCode()
+
+        where:
+        row << [
+                [id: 1L, name: "hello", count: 5, amount: -7L, flag: true, nested1: new TestNested(value: "world"), nested2: "world"],
+                [name: "hello"],
+                [:],
+                // cast to the property types
+                [count: 3L, amount: 3],
+                [flag: false, count: -1]
+        ]
+    }
+
+    @CompileStatic
+    private static int logicalHashCodeOfStrings(Map<String, String> row) {
+        return TestRow.logicalHashCodeOf(row)
+    }
+
+    void "test logicalHashCodeOf accepts a map with any value type"() {
+        given:
+        Map<String, String> row = [name: "hello", nested2: "world"]
+
+        expect:
+        TestRow.getMethod("logicalHashCodeOf", Map).genericParameterTypes[0].typeName == "java.util.Map<java.lang.String, ?>"
+        logicalHashCodeOfStrings(row) == new TestRow(row).hashCode()
+    }
+
+    void "test logicalHashCodeOf with a value that is referenced twice"() {
+        given:
+        TestNested nested = new TestNested(value: "world")
+
+        expect:
+        // the second reference isn't part of the instance hash code
+        TestRow.logicalHashCodeOf([nested1: nested, nested2: nested]) == new TestRow(nested1: nested, nested2: nested).hashCode()
+    }
+
+    void "test logicalHashCodeOf with all null values"() {
+        expect:
+        TestHash.logicalHashCodeOf([:]) == TestHash.name.hashCode()
+        TestHash.logicalHashCodeOf([null, null] as Object[]) == TestHash.name.hashCode()
+    }
+
+    void "test logicalHashCodeOf with inheritance"() {
+        expect:
+        TestHashExtended.logicalHashCodeOf(["world3", "world1", "world2"] as Object[]) == new TestHashExtended(hello1: "world1", hello2: "world2", hello3: "world3").hashCode()
+    }
+
+    void "test logicalHashCodeOf with the wrong number of values"() {
+        when:
+        TestHash.logicalHashCodeOf(["world1"] as Object[])
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
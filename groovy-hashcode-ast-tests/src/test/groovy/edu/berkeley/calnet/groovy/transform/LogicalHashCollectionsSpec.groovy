@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform
+
+import spock.lang.Specification
+
+class LogicalHashCollectionsSpec extends Specification {
+
+    @LogicalEqualsAndHashCode(excludes = "excludedField", changeCallbackClass = LogicalHashCollectionChangeCallback)
+    static class TestKey {
+        String field1
+        String field2
+        String excludedField
+    }
+
+    void "test logically equivalent keys in LogicalHashMap"() {
+        given:
+        TestKey key1 = new TestKey(field1: "hello", field2: "world", excludedField: "ABC")
+        TestKey key2 = new TestKey(field1: "hello", field2: "world", excludedField: "DEF")
+        LogicalHashMap<TestKey, String> map = new LogicalHashMap<TestKey, String>()
+
+        when:
+        map[key1] = "one"
+        map[key2] = "two"
+
+        then:
+        map.size() == 1
+        map[key1] == "two" && map[key2] == "two"
+        System.identityHashCode(map.keySet().first()) == System.identityHashCode(key1)
+        map.remove(new TestKey(field1: "hello", field2: "world")) == "two"
+        map.isEmpty()
+    }
+
+    void "test LogicalHashMap growth and removal"() {
+        given:
+        LogicalHashMap<TestKey, Integer> map = new LogicalHashMap<TestKey, Integer>()
+
+        when:
+        1000.times { map[new TestKey(field1: "key$it")] = it }
+        (0..<1000).step(2).each { map.remove(new TestKey(field1: "key$it")) }
+
+        then:
+        map.size() == 500
+        (0..<1000).every { (map[new TestKey(field1: "key$it")] == (it % 2 ? it : null)) }
+        map.values().sum() == (0..<1000).findAll { it % 2 }.sum()
+    }
+
+    void "test LogicalHashSet ignores logically equivalent adds"() {
+        given:
+        TestKey val1 = new TestKey(field1: "hello", field2: "world", excludedField: "ABC")
+        TestKey val2 = new TestKey(field1: "hello", field2: "world", excludedField: "DEF")
+        LogicalHashSet<TestKey> set = new LogicalHashSet<TestKey>()
+
+        expect:
+        set.add(val1)
+        !set.add(val2)
+        set.size() == 1
+        System.identityHashCode(set.first()) == System.identityHashCode(val1)
+        set.contains(val2)
+        !set.contains(null)
+    }
+
+    void "test entries are relocated when a key's hash code changes"() {
+        given:
+        TestKey key = new TestKey(field1: "before", field2: "world")
+        LogicalHashMap<TestKey, String> map = new LogicalHashMap<TestKey, String>()
+        LogicalHashSet<TestKey> set = new LogicalHashSet<TestKey>()
+        map[key] = "value"
+        set.add(key)
+
+        when:
+        key.field1 = "after"
+
+        then:
+        // the lookup calls key.hashCode(), which detects the change and
+        // fires the callback that relocates the entry
+        map[key] == "value"
+        set.contains(key)
+        map[new TestKey(field1: "after", field2: "world")] == "value"
+        !map.containsKey(new TestKey(field1: "before", field2: "world"))
+        map.size() == 1
+        set.size() == 1
+    }
+
+    void "test a key changed to equal another key keeps its value"() {
+        given:
+        TestKey existing = new TestKey(field1: "after", field2: "world")
+        TestKey key = new TestKey(field1: "before", field2: "world")
+        LogicalHashMap<TestKey, String> map = new LogicalHashMap<TestKey, String>()
+        map[existing] = "existing"
+        map[key] = "changed"
+
+        when:
+        key.field1 = "after"
+
+        then:
+        map[key] == "changed"
+        map.size() == 1
+        System.identityHashCode(map.keySet().first()) == System.identityHashCode(existing)
+    }
+
+    void "test only the collections holding a key are relocated"() {
+        given:
+        TestKey key = new TestKey(field1: "before", field2: "world")
+        LogicalHashMap<TestKey, String> holder = new LogicalHashMap<TestKey, String>()
+        LogicalHashMap<TestKey, String> removed = new LogicalHashMap<TestKey, String>()
+        LogicalHashSet<TestKey> cleared = new LogicalHashSet<TestKey>()
+        holder[key] = "holder"
+        removed[key] = "removed"
+        cleared.add(key)
+        removed.remove(key)
+        cleared.clear()
+        removed[new TestKey(field1: "other")] = "other"
+        Iterator<TestKey> iter = removed.keySet().iterator()
+
+        when:
+        key.field1 = "after"
+
+        then:
+        holder[key] == "holder"
+        holder.size() == 1
+        !removed.containsKey(key)
+        cleared.isEmpty()
+        // the map that no longer holds the key wasn't modified
+        iter.next().field1 == "other"
+    }
+
+    void "test a change detected by equals() during a lookup"() {
+        given:
+        // 8 entries fill the default table to its load limit, so relocating
+        // the changed key resizes the table in the middle of the lookup
+        List<TestKey> others = (1..7).collect { new TestKey(field1: "other$it") }
+        TestKey key = new TestKey(field1: "before", field2: "world")
+        LogicalHashMap<TestKey, String> map = new LogicalHashMap<TestKey, String>()
+        others.each { map[it] = it.field1 }
+        map[key] = "key"
+
+        when:
+        key.field1 = "after"
+        // equals() on the stored key calls its hashCode(), which detects the
+        // change and relocates it while this put() is probing
+        map.put(new TestKey(field1: "before", field2: "world"), "copy")
+
+        then:
+        map.size() == 9
+        map[key] == "key"
+        map[new TestKey(field1: "before", field2: "world")] == "copy"
+        others.every { map[it] == it.field1 }
+        map.keySet().collect { System.identityHashCode(it) }.unique().size() == 9
+    }
+
+    void "test iterator removal"() {
+        given:
+        LogicalHashSet<TestKey> set = new LogicalHashSet<TestKey>((0..<100).collect { new TestKey(field1: "key$it") })
+
+        when:
+        Iterator<TestKey> iter = set.iterator()
+        while (iter.hasNext()) {
+            if (iter.next().field1.endsWith("0")) {
+                iter.remove()
+            }
+        }
+
+        then:
+        set.size() == 90
+        !set.contains(new TestKey(field1: "key50"))
+        set.contains(new TestKey(field1: "key51"))
+    }
+}
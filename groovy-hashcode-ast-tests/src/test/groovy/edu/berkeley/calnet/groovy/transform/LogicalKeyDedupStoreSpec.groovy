@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform
+
+import spock.lang.Specification
+
+class LogicalKeyDedupStoreSpec extends Specification {
+    File tempDir
+    File storeFile
+
+    void setup() {
+        tempDir = File.createTempDir()
+        storeFile = new File(tempDir, "seen.keys")
+    }
+
+    void cleanup() {
+        tempDir.deleteDir()
+    }
+
+    private List<File> indexFiles() {
+        return tempDir.listFiles().findAll { it.name.startsWith("seen.keys.index.") }
+    }
+
+    /**
+     * Clears the clean flag of a closed store's index, as if the store
+     * hadn't been closed.
+     */
+    private void markIndexDirty() {
+        RandomAccessFile raf = new RandomAccessFile(indexFiles().first(), "rw")
+        raf.seek(8)
+        raf.writeInt(0)
+        raf.close()
+    }
+
+    void "test containsOrAdd"() {
+        given:
+        LogicalKeyDedupStore store = new LogicalKeyDedupStore(storeFile)
+
+        expect:
+        !store.containsOrAdd(new TestHash(hello1: "world1", hello2: "world2"))
+        store.containsOrAdd(new TestHash(hello1: "world1", hello2: "world2"))
+        store.contains(new TestHash(hello1: "world1", hello2: "world2"))
+        !store.contains(new TestHash(hello1: "world1", hello2: "other"))
+        store.size() == 1
+
+        cleanup:
+        store.close()
+    }
+
+    void "test index growth"() {
+        given:
+        LogicalKeyDedupStore store = new LogicalKeyDedupStore(storeFile, 4)
+
+        when:
+        1000.times { assert !store.containsOrAdd(new TestHash(hello1: "key$it")) }
+
+        then:
+        store.size() == 1000
+        (0..<1000).every { store.containsOrAdd(new TestHash(hello1: "key$it")) }
+        store.size() == 1000
+
+        when:
+        store.close()
+
+        then:
+        indexFiles().size() == 1
+    }
+
+    void "test reopen after close"() {
+        given:
+        LogicalKeyDedupStore store = new LogicalKeyDedupStore(storeFile)
+        100.times { store.containsOrAdd(new TestHash(hello1: "key$it")) }
+        store.close()
+
+        when:
+        store = new LogicalKeyDedupStore(storeFile)
+
+        then:
+        store.size() == 100
+        store.contains(new TestHash(hello1: "key99"))
+        !store.containsOrAdd(new TestHash(hello1: "key100"))
+
+        cleanup:
+        store.close()
+    }
+
+    void "test reopen without close rebuilds the index and discards a partial key"() {
+        given:
+        LogicalKeyDedupStore crashed = new LogicalKeyDedupStore(storeFile)
+        100.times { crashed.containsOrAdd(new TestHash(hello1: "key$it")) }
+        crashed.close()
+        markIndexDirty()
+        long logLength = storeFile.length()
+        // the start of a key that was being appended
+        RandomAccessFile raf = new RandomAccessFile(storeFile, "rw")
+        raf.seek(logLength)
+        raf.writeInt(100)
+        raf.write(1)
+        raf.close()
+
+        when:
+        LogicalKeyDedupStore store = new LogicalKeyDedupStore(storeFile)
+
+        then:
+        storeFile.length() == logLength
+        store.size() == 100
+        store.contains(new TestHash(hello1: "key0"))
+        !store.containsOrAdd(new TestHash(hello1: "key100"))
+
+        cleanup:
+        store?.close()
+    }
+
+    void "test reopen without close truncates the log at a corrupted key"() {
+        given:
+        LogicalKeyDedupStore crashed = new LogicalKeyDedupStore(storeFile)
+        100.times { crashed.containsOrAdd(new TestHash(hello1: "key$it")) }
+        crashed.close()
+        markIndexDirty()
+        // flip a bit in the 51st key, after each key's length, bytes and CRC32
+        RandomAccessFile raf = new RandomAccessFile(storeFile, "rw")
+        long offset = 0
+        50.times {
+            raf.seek(offset)
+            offset += 4 + raf.readInt() + 4
+        }
+        raf.seek(offset + 6)
+        int b = raf.read()
+        raf.seek(offset + 6)
+        raf.write(b ^ 1)
+        raf.close()
+
+        when:
+        LogicalKeyDedupStore store = new LogicalKeyDedupStore(storeFile)
+
+        then:
+        storeFile.length() == offset
+        store.size() == 50
+        store.contains(new TestHash(hello1: "key49"))
+        !store.contains(new TestHash(hello1: "key50"))
+
+        cleanup:
+        store?.close()
+    }
+
+    void "test a closed store throws IOException"() {
+        given:
+        LogicalKeyDedupStore store = new LogicalKeyDedupStore(storeFile)
+        store.close()
+
+        when:
+        store.containsOrAdd(new TestHash(hello1: "world1"))
+
+        then:
+        thrown IOException
+    }
+}
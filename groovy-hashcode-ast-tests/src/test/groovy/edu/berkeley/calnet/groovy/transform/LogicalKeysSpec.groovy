@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform
+
+import spock.lang.Specification
+
+import java.nio.BufferOverflowException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class LogicalKeysSpec extends Specification {
+
+    static enum TestColor {
+        RED, GREEN
+    }
+
+    @LogicalEqualsAndHashCode(excludes = "id")
+    static class TestKeyValues {
+        Long id
+        String name
+        int count
+        Boolean flag
+        TestColor color
+        Date date
+        UUID uuid
+        BigDecimal amount
+        String nullValue
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestKeyInner {
+        String name
+        List<Object> tags
+        TestKeyOuter outer
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestKeyOuter {
+        String name
+        TestKeyInner inner
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestUnsupportedKey {
+        String name
+        Map<String, String> attributes
+        int[] numbers
+    }
+
+    @LogicalEqualsAndHashCode
+    static class TestObjectKey {
+        Object value
+    }
+
+    private static TestKeyOuter createOuter(String innerName, List<Object> tags) {
+        TestKeyOuter outer = new TestKeyOuter(name: "outer", inner: new TestKeyInner(name: innerName, tags: tags))
+        outer.inner.outer = outer
+        return outer
+    }
+
+    private static TestKeyValues createValues(Long id, String name) {
+        return new TestKeyValues(id: id, name: name, count: -7, flag: true, color: TestColor.GREEN, date: new Date(12345L), uuid: new UUID(1L, 2L), amount: new BigDecimal("-123.4500"))
+    }
+
+    void "test writing and comparing a logical key"() {
+        given:
+        TestKeyValues obj = createValues(1, "h\u00e9llo w\u00f6rld \ud83d\ude00")
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256).order(ByteOrder.LITTLE_ENDIAN)
+        buffer.position(10)
+
+        when:
+        obj.writeLogicalKey(buffer)
+
+        then:
+        buffer.position() == 10 + obj.logicalKeySize()
+        LogicalKeys.storedKeySize(buffer, 10) == obj.logicalKeySize()
+        LogicalKeys.keyEquals(buffer, 10, obj)
+        // id is excluded
+        LogicalKeys.keyEquals(buffer, 10, createValues(2, "h\u00e9llo w\u00f6rld \ud83d\ude00"))
+        !LogicalKeys.keyEquals(buffer, 10, createValues(1, "h\u00e9llo w\u00f6rld \ud83d\ude01"))
+        !LogicalKeys.keyEquals(buffer, 11, obj)
+        !LogicalKeys.keyEquals(buffer, 250, obj)
+    }
+
+    void "test strings are encoded as UTF-8"() {
+        given:
+        String str = "h\u00e9llo w\u00f6rld \ud83d\ude00"
+        byte[] expected = str.getBytes("UTF-8")
+        ByteBuffer buffer = ByteBuffer.allocate(64)
+
+        when:
+        LogicalKeys.writeValue(buffer, str)
+
+        then:
+        buffer.position() == LogicalKeys.valueSize(str)
+        buffer.position() == 1 + 4 + expected.length
+        buffer.getInt(1) == expected.length
+        buffer.array()[5..<buffer.position()] == expected as List
+    }
+
+    void "test key layout"() {
+        given:
+        TestHash obj = new TestHash(hello1: "a", hello2: null)
+        ByteBuffer buffer = ByteBuffer.allocate(64)
+
+        when:
+        obj.writeLogicalKey(buffer)
+
+        then:
+        // length, then the tag, length and byte of "a", then the null tag
+        obj.logicalKeySize() == 4 + 1 + 4 + 1 + 1
+        buffer.getInt(0) == obj.logicalKeySize() - 4
+        LogicalKeys.keyEquals(buffer, 0, new TestHash(hello1: "a"))
+    }
+
+    void "test nested objects and lists are encoded by value"() {
+        given:
+        TestKeyOuter obj = createOuter("inner", ["a", 1, null])
+        ByteBuffer buffer = ByteBuffer.allocate(256)
+
+        when:
+        obj.writeLogicalKey(buffer)
+
+        then:
+        buffer.position() == obj.logicalKeySize()
+        LogicalKeys.keyEquals(buffer, 0, createOuter("inner", ["a", 1, null]))
+        !LogicalKeys.keyEquals(buffer, 0, createOuter("inner", ["a", 2, null]))
+        !LogicalKeys.keyEquals(buffer, 0, createOuter("inner", ["a", 1]))
+        !LogicalKeys.keyEquals(buffer, 0, createOuter("other", ["a", 1, null]))
+    }
+
+    void "test a list that contains itself"() {
+        given:
+        List<Object> list = ["a"]
+        list.add(list)
+        ByteBuffer buffer = ByteBuffer.allocate(64)
+
+        when:
+        LogicalKeys.writeValue(buffer, list)
+
+        then:
+        buffer.position() == LogicalKeys.valueSize(list)
+    }
+
+    void "test timestamps keep their nanoseconds"() {
+        given:
+        java.sql.Timestamp timestamp1 = new java.sql.Timestamp(1000L)
+        timestamp1.nanos = 1
+        java.sql.Timestamp timestamp2 = new java.sql.Timestamp(1000L)
+        timestamp2.nanos = 2
+        ByteBuffer buffer = ByteBuffer.allocate(64)
+
+        when:
+        new TestObjectKey(value: timestamp1).writeLogicalKey(buffer)
+
+        then:
+        LogicalKeys.keyEquals(buffer, 0, new TestObjectKey(value: timestamp1))
+        !LogicalKeys.keyEquals(buffer, 0, new TestObjectKey(value: timestamp2))
+    }
+
+    void "test properties whose types can't be encoded"() {
+        when:
+        new TestUnsupportedKey(name: "a").logicalKeySize()
+
+        then:
+        UnsupportedOperationException e = thrown()
+        e.message == "Logical keys can't encode attributes (java.util.Map), numbers (int[])"
+    }
+
+    void "test values whose types can't be encoded"() {
+        when:
+        new TestObjectKey(value: new Object()).writeLogicalKey(ByteBuffer.allocate(64))
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    void "test writing to a buffer that is too small"() {
+        given:
+        ByteBuffer buffer = ByteBuffer.allocate(5)
+
+        when:
+        createValues(1, "hello").writeLogicalKey(buffer)
+
+        then:
+        thrown BufferOverflowException
+        buffer.position() == 0
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California and
+ * contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.calnet.groovy.transform
+
+import spock.lang.Specification
+
+class LogicalPropertyValueSpec extends Specification {
+
+    @LogicalEqualsAndHashCode(excludes = "excludedField")
+    static class TestValues {
+        String field1
+        int field2
+        boolean field3
+        String excludedField
+        Date field4
+        String field5
+    }
+
+    void "test reading logical property values by index"() {
+        given:
+        Date date = new Date()
+        LogicalEqualsAndHashCodeInterface obj = (LogicalEqualsAndHashCodeInterface) new TestValues(field1: "hello", field2: 2, field3: true, excludedField: "ABC", field4: date, field5: null)
+
+        expect:
+        obj.logicalPropertyCount == 5
+        (0..<obj.logicalPropertyCount).collect { obj.getLogicalPropertyValue(it) } == ["hello", 2, true, date, null]
+        (0..<obj.logicalPropertyCount).collect { obj.getLogicalPropertyValue(it) } == obj.logicalHashCodeProperties.collect { obj."$it" }
+    }
+
+    void "test reading logical property values with inheritance"() {
+        given:
+        TestHashExtended obj = new TestHashExtended(hello1: "world1", hello2: "world2", hello3: "world3")
+
+        expect:
+        obj.logicalPropertyCount == 3
+        (0..<obj.logicalPropertyCount).collect { obj.getLogicalPropertyValue(it) } == ["world3", "world1", "world2"]
+    }
+
+    void "test out of range logical property index"() {
+        given:
+        TestHash obj = new TestHash(hello1: "world1", hello2: "world2")
+
+        when:
+        obj.getLogicalPropertyValue(index)
+
+        then:
+        thrown IndexOutOfBoundsException
+
+        where:
+        index << [-1, 2]
+    }
+}